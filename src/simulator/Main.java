@@ -11,6 +11,9 @@ import java.util.Iterator;
 import simulator.control.Controller;
 import simulator.control.ControllerBatch;
 import simulator.control.Printable;
+import simulator.control.ProgressionTable;
+import simulator.control.ProgressionWriter;
+import simulator.control.SimFile;
 import simulator.control.events.Event;
 
 /**
@@ -55,8 +58,27 @@ public class Main {
 	 *            results directory (for the "by directory" mode); -id, an
 	 *            identifier for the simulation used in the directory file names
 	 *            that are created automatically; -r specifies the number of
-	 *            repetitions (for the "by directory" mode); -evs, to send the
-	 *            event sets that should be executed
+	 *            repetitions (for the "by directory" mode); -metrics, the
+	 *            metrics that are calculated at each checkpoint separated by
+	 *            semicolons (e.g. "CULTURES;ENERGY", see Metrics); -codec,
+	 *            the compression of the simulation files that are written
+	 *            (NONE or DEFLATE, see SimFile); -convert, a simulation file
+	 *            or a directory of simulation files of the previous format
+	 *            that are rewritten in the current one (nothing else is
+	 *            executed); -progressions, SHARED to write the progressions
+	 *            of all the simulations in a single file or FILES (default)
+	 *            to write one file per simulation (see ProgressionWriter);
+	 *            -export, a single file of progressions or a table of
+	 *            progressions (or the results directory that contains it)
+	 *            that is exported to one file per simulation (nothing else is
+	 *            executed); -columnar, a results directory whose progressions
+	 *            are written in a table of progressions (see
+	 *            ProgressionTable, nothing else is executed); -aggregate, a
+	 *            table of progressions (or the results directory that
+	 *            contains it) whose last lines are aggregated by
+	 *            configuration in the aggregates.csv file of the results
+	 *            directory (nothing else is executed); -evs, to send the event
+	 *            sets that should be executed
 	 */
 	@SuppressWarnings("unchecked")
 	public static void main(String[] args) {
@@ -64,6 +86,12 @@ public class Main {
 		String results_directory = null;
 		String events_file = null; 
 		String identifier = "results";
+		String metrics = null;
+		String convert = null;
+		String export = null;
+		String columnar = null;
+		String aggregate = null;
+		boolean shared_progressions = false;
 		int rep = -1;
 		boolean collecting_events_args = false;
 		ArrayList<Event> events = new ArrayList<Event>();
@@ -102,6 +130,31 @@ public class Main {
 					} catch (Exception e) {
 						throw new IllegalArgumentException("Invalid argument for -r: " + args[i + 1]);
 					}
+				} else if (argu.equals("metrics")) {
+					metrics = args[i + 1];
+					i++;
+				} else if (argu.equals("codec")) {
+					SimFile.CODEC = SimFile.codec(args[i + 1]);
+					i++;
+				} else if (argu.equals("progressions")) {
+					if (args[i + 1].equalsIgnoreCase("SHARED")) {
+						shared_progressions = true;
+					} else if (!args[i + 1].equalsIgnoreCase("FILES")) {
+						throw new IllegalArgumentException("Invalid argument for -progressions: " + args[i + 1]);
+					}
+					i++;
+				} else if (argu.equals("export")) {
+					export = args[i + 1];
+					i++;
+				} else if (argu.equals("columnar")) {
+					columnar = args[i + 1];
+					i++;
+				} else if (argu.equals("aggregate")) {
+					aggregate = args[i + 1];
+					i++;
+				} else if (argu.equals("convert")) {
+					convert = args[i + 1];
+					i++;
 				} else if (argu.equals("evs")) {
 					collecting_events_args = true;
 				} else {
@@ -119,6 +172,23 @@ public class Main {
 
 		printer = new Main.Printer();
 
+		if (convert != null) {
+			convert(convert);
+			return;
+		}
+		if (export != null) {
+			export(export);
+			return;
+		}
+		if (columnar != null) {
+			columnar(columnar);
+			return;
+		}
+		if (aggregate != null) {
+			aggregate(aggregate);
+			return;
+		}
+
 		if (results_directory != null && experimental_file != null) {
 			throw new IllegalArgumentException("WARNING: either the experimental file (-ef) or results directory (-rd)"
 					+ " but not both has to be specified.");
@@ -146,16 +216,129 @@ public class Main {
 		}
 
 		if (results_directory != null) {
-			run_from_directory(results_directory, events, identifier, rep);
+			run_from_directory(results_directory, events, identifier, rep, metrics, shared_progressions);
 
 		} else if (experimental_file != null) {
 			if (rep != -1) {
 				throw new IllegalArgumentException(
 						"The number of iterations are take from the csv file. Parameter -i is ambiguos when a csv is specified.");
 			}
-			run_from_file(experimental_file, events, identifier);
+			run_from_file(experimental_file, events, identifier, metrics, shared_progressions);
+		}
+
+	}
+
+	/**
+	 * Rewrite the simulation files of the previous format (gzip'd Java
+	 * serialization) in the current one (see SimFile). The original files are
+	 * kept with the extension .old
+	 * 
+	 * @param path
+	 *            a simulation file, or a directory (e.g. the simulations
+	 *            directory of a results directory)
+	 */
+	private static void convert(String path) {
+		File file = new File(path);
+		File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+		if (files == null || !file.exists()) {
+			throw new IllegalArgumentException("Not a simulation file or directory: " + path);
+		}
+		int converted = 0;
+		for (File f : files) {
+			if (!f.isFile() || f.getName().endsWith(".old")) {
+				continue;
+			}
+			try {
+				if (SimFile.convert(f)) {
+					printer.print(-1, "Converted: " + f + "\n");
+					converted++;
+				}
+			} catch (IOException | ClassNotFoundException | RuntimeException e) {
+				e.printStackTrace();
+				printer.print(-1, "Problem converting the simulation file: " + f + "\n");
+			}
+		}
+		printer.print(-1, converted + " simulation file(s) converted.\n");
+	}
+
+	/**
+	 * Reproduce the progression files of the simulations from a single file
+	 * of progressions (see ProgressionWriter) or a table of progressions (see
+	 * ProgressionTable)
+	 * 
+	 * @param path
+	 *            the file or table of progressions, or the results directory
+	 *            that contains it
+	 */
+	private static void export(String path) {
+		File file = new File(path);
+		if (file.isDirectory()) {
+			file = new File(file, Controller.PROGRESSIONS_DIR + ProgressionWriter.FILE_NAME);
+			if (!file.isFile()) {
+				file = new File(new File(path), Controller.PROGRESSIONS_DIR + ProgressionTable.FILE_NAME);
+			}
+		}
+		if (!file.isFile()) {
+			throw new IllegalArgumentException("No file of progressions was found: " + file);
+		}
+		try {
+			int files = ProgressionTable.is_table(file) ? ProgressionTable.export(file)
+					: ProgressionWriter.export(file);
+			printer.print(-1, files + " progression file(s) exported.\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+			printer.print(-1, "Problem exporting the progressions: " + file + "\n");
+		}
+	}
+
+	/**
+	 * Write the progressions of a results directory in a table of
+	 * progressions (see ProgressionTable)
+	 * 
+	 * @param path
+	 *            the results directory
+	 */
+	private static void columnar(String path) {
+		File directory = new File(path, Controller.PROGRESSIONS_DIR);
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException("No progressions directory was found: " + directory);
+		}
+		try {
+			int files = ProgressionTable.build(directory);
+			printer.print(-1, files + " progression file(s) written in "
+					+ new File(directory, ProgressionTable.FILE_NAME) + ".\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+			printer.print(-1, "Problem writing the table of progressions: " + directory + "\n");
 		}
+	}
 
+	/**
+	 * Aggregate the last lines of the progressions by configuration, from a
+	 * table of progressions (see ProgressionTable), in the aggregates.csv
+	 * file of the results directory
+	 * 
+	 * @param path
+	 *            the table of progressions, or the results directory that
+	 *            contains it
+	 */
+	private static void aggregate(String path) {
+		File file = new File(path);
+		if (file.isDirectory()) {
+			file = new File(file, Controller.PROGRESSIONS_DIR + ProgressionTable.FILE_NAME);
+		}
+		if (!file.isFile()) {
+			throw new IllegalArgumentException("No table of progressions was found: " + file);
+		}
+		// the table is in the progressions directory of the results
+		File output = new File(file.getAbsoluteFile().getParentFile().getParentFile(), "aggregates.csv");
+		try {
+			int configurations = ProgressionTable.aggregate(file, output);
+			printer.print(-1, configurations + " configuration(s) aggregated in " + output + ".\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+			printer.print(-1, "Problem aggregating the table of progressions: " + file + "\n");
+		}
 	}
 
 	/**
@@ -171,9 +354,16 @@ public class Main {
 	 * @param rep
 	 *            the number of repetitions that this will be executed (it makes
 	 *            more sense for randomized events)
+	 * @param metrics
+	 *            the metrics that are calculated, or null to keep the metrics
+	 *            of the stored simulations
+	 * @param shared_progressions
+	 *            write the progressions of all the simulations in a single
+	 *            file
 	 * @return the controller of the simulation
 	 */
-	private static ControllerBatch run_from_directory(String rd, ArrayList<Event> events, String id, int rep) {
+	private static ControllerBatch run_from_directory(String rd, ArrayList<Event> events, String id, int rep,
+			String metrics, boolean shared_progressions) {
 		ControllerBatch controller = new ControllerBatch(printer, null);
 		ArrayList<String> sim_list = new ArrayList<String>();
 
@@ -183,7 +373,10 @@ public class Main {
 			File[] directoryListing = simulations_dir.listFiles();
 			if (directoryListing != null) {
 				for (File child : directoryListing) {
-					sim_list.add(child.getAbsolutePath());
+					// the originals of the converted files (see -convert)
+					if (!child.getName().endsWith(".old")) {
+						sim_list.add(child.getAbsolutePath());
+					}
 				}
 			} else {
 				throw new IllegalArgumentException("The " + simulations_dir
@@ -214,6 +407,10 @@ public class Main {
 			throw new IllegalArgumentException("I/O Exception.");
 		}
 
+		if (metrics != null) {
+			controller.set_metrics(metrics);
+		}
+		controller.set_shared_progressions(shared_progressions);
 		controller.start(id, rd + "/");
 		return controller;
 
@@ -232,9 +429,16 @@ public class Main {
 	 *            the parameters of the csv file
 	 * @param id
 	 *            the id of the simulation to identify the results
+	 * @param metrics
+	 *            the metrics that are calculated, or null to use the METRICS
+	 *            column of the csv file (all the metrics by default)
+	 * @param shared_progressions
+	 *            write the progressions of all the simulations in a single
+	 *            file
 	 * @return the controller of the simulation
 	 */
-	private static ControllerBatch run_from_file(String ef, ArrayList<Event> events, String id) {
+	private static ControllerBatch run_from_file(String ef, ArrayList<Event> events, String id, String metrics,
+			boolean shared_progressions) {
 		ControllerBatch controller = new ControllerBatch(printer, null);
 
 		try {
@@ -244,6 +448,10 @@ public class Main {
 			throw new IllegalArgumentException("File not found: " + ef);
 		}
 
+		if (metrics != null) {
+			controller.set_metrics(metrics);
+		}
+		controller.set_shared_progressions(shared_progressions);
 		controller.start(id, Controller.WORKSPACE_DIR);
 
 		return controller;
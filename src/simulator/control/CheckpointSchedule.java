@@ -0,0 +1,149 @@
+package simulator.control;
+
+import java.util.Arrays;
+
+/**
+ * Decides which checkpoints of a simulation calculate and write their
+ * statistics. The simulation always runs in blocks of SPEED iterations (and
+ * executes its events between blocks), but only the blocks that end at or
+ * after the next time of the schedule are checkpoints:
+ *
+ * - FIXED: every block (the default).
+ *
+ * - FIXED:interval: every interval iterations.
+ *
+ * - LOG:n: n times per decade of iterations (1, 1.26, 1.58, ..., 10, 12.6,
+ * ... for n = 10), so the beginning of the simulation, when the world changes
+ * faster, is sampled more often than the end.
+ *
+ * - AT:t1;t2;...: at the given iterations, e.g. the times of the events.
+ *
+ * The last block of the simulation is always a checkpoint (and the blocks in
+ * which events are executed, see Simulation).
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CheckpointSchedule {
+
+	public static final String FIXED = "FIXED";
+	public static final String LOG = "LOG";
+	public static final String AT = "AT";
+
+	/**
+	 * Iterations between checkpoints (FIXED:interval), 0 if every block is a
+	 * checkpoint or if the times are given
+	 */
+	private final int interval;
+	/**
+	 * Times of the checkpoints, in increasing order (LOG and AT)
+	 */
+	private final int[] times;
+	/**
+	 * Next time of the schedule
+	 */
+	private long next_time;
+	private int next = 0;
+
+	private CheckpointSchedule(int interval, int[] times) {
+		this.interval = interval;
+		this.times = times;
+		reset();
+	}
+
+	/**
+	 * Creates a schedule from its description
+	 *
+	 * @param schedule
+	 *            FIXED, FIXED:interval, LOG:n or AT:t1;t2;...
+	 * @param iterations
+	 *            number of iterations of the simulation
+	 * @return the schedule
+	 * @throws IllegalArgumentException
+	 *             if the description is not valid
+	 */
+	static CheckpointSchedule parse(String schedule, int iterations) {
+		String s = (schedule == null) ? FIXED : schedule.trim().toUpperCase();
+		int colon = s.indexOf(':');
+		String type = (colon < 0) ? s : s.substring(0, colon).trim();
+		String argument = (colon < 0) ? null : s.substring(colon + 1).trim();
+		try {
+			if (type.equals(FIXED)) {
+				int interval = (argument == null) ? 0 : Integer.parseInt(argument);
+				if (interval < 0) {
+					throw new IllegalArgumentException("Negative interval of checkpoints: " + schedule);
+				}
+				return new CheckpointSchedule(interval, null);
+			} else if (type.equals(LOG) && argument != null) {
+				int per_decade = Integer.parseInt(argument);
+				if (per_decade < 1) {
+					throw new IllegalArgumentException("At least one checkpoint per decade is needed: " + schedule);
+				}
+				int[] times = new int[16];
+				int timesN = 0;
+				for (int k = 0;; k++) {
+					double t = Math.ceil(Math.pow(10, k / (double) per_decade) - 1e-9);
+					if (t > iterations) {
+						break;
+					}
+					if (timesN == 0 || times[timesN - 1] < t) {
+						if (timesN == times.length) {
+							times = Arrays.copyOf(times, 2 * timesN);
+						}
+						times[timesN++] = (int) t;
+					}
+				}
+				return new CheckpointSchedule(0, Arrays.copyOf(times, timesN));
+			} else if (type.equals(AT) && argument != null) {
+				String[] values = argument.split(";");
+				int[] times = new int[values.length];
+				for (int i = 0; i < values.length; i++) {
+					times[i] = Integer.parseInt(values[i].trim());
+				}
+				Arrays.sort(times);
+				return new CheckpointSchedule(0, times);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a valid number in the checkpoints: " + schedule);
+		}
+		throw new IllegalArgumentException("No checkpoint schedule was recognized with the name: " + schedule);
+	}
+
+	/**
+	 * Start the schedule again (each run of the simulation counts its
+	 * iterations from 0)
+	 */
+	void reset() {
+		next = 0;
+		next_time = interval;
+	}
+
+	/**
+	 * Check if the block that ends in an iteration is a checkpoint, and move
+	 * the schedule past it
+	 *
+	 * @param iteration
+	 *            iteration at the end of the block
+	 * @return true if the statistics should be calculated
+	 */
+	boolean is_checkpoint(int iteration) {
+		if (times == null) {
+			if (interval == 0) {
+				return true;
+			}
+			if (iteration < next_time) {
+				return false;
+			}
+			while (next_time <= iteration) {
+				next_time += interval;
+			}
+			return true;
+		}
+		boolean due = false;
+		while (next < times.length && times[next] <= iteration) {
+			next++;
+			due = true;
+		}
+		return due;
+	}
+}
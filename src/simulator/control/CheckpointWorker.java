@@ -0,0 +1,125 @@
+package simulator.control;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Calculates the statistics of the checkpoints of a simulation in a separate
+ * thread, so the simulation continues with the next iterations as soon as its
+ * state is copied.
+ *
+ * The state is copied into one of two snapshots (double buffering): while the
+ * worker calculates the statistics of one of them, the simulation can copy
+ * the next checkpoint into the other one. The simulation only waits if it
+ * reaches a checkpoint before the worker finished with the snapshot it needs.
+ * The snapshots are recycled, so their buffers (traits, labels of the
+ * cultures, ...) are only allocated once. A single thread writes the
+ * progression lines, in the order of the checkpoints.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CheckpointWorker {
+
+	/**
+	 * The simulation whose checkpoints are calculated
+	 */
+	private final Simulation simulation;
+	/**
+	 * The two snapshots, and the pending calculation of each of them
+	 */
+	private final Simulation[] snapshots = new Simulation[2];
+	private final Future<?>[] pending = new Future<?>[2];
+	/**
+	 * Snapshot of the next checkpoint
+	 */
+	private int next = 0;
+	/**
+	 * Thread of the statistics
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Creates the worker of a simulation
+	 *
+	 * @param simulation
+	 *            the simulation
+	 */
+	CheckpointWorker(Simulation simulation) {
+		this.simulation = simulation;
+		for (int s = 0; s < snapshots.length; s++) {
+			snapshots[s] = simulation.clone();
+		}
+		final int identifier = simulation.IDENTIFIER;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Statistics of " + identifier);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Copy the current state of the simulation and calculate the statistics
+	 * of the checkpoint in the worker thread
+	 *
+	 * @param writer
+	 *            the writer of the progression, it receives the results of
+	 *            the checkpoint
+	 */
+	void submit(final CsvEncoder writer) {
+		await(next);
+		final Simulation snapshot = snapshots[next];
+		simulation.copy_state_to(snapshot);
+		pending[next] = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				snapshot.statistics(writer);
+				return null;
+			}
+		});
+		next = 1 - next;
+	}
+
+	/**
+	 * Wait until the statistics of all the checkpoints are written
+	 */
+	void drain() {
+		// the oldest checkpoint first
+		await(next);
+		await(1 - next);
+	}
+
+	/**
+	 * Wait for the pending results and stop the thread
+	 */
+	void shutdown() {
+		drain();
+		executor.shutdown();
+	}
+
+	/**
+	 * Wait until the calculation of a snapshot finished
+	 */
+	private void await(int s) {
+		if (pending[s] == null) {
+			return;
+		}
+		try {
+			pending[s].get();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		pending[s] = null;
+	}
+}
@@ -2,19 +2,20 @@ package simulator.control;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 import simulator.control.events.Event;
 import simulator.gui.Notifiable;
@@ -29,6 +30,13 @@ import simulator.worlds.M4;
  * start, stop, suspend or resume them, load simulations from a CSV file or a
  * results directory, interact with a GUI and add events to the simulations
  * 
+ * The simulations are run by a pipeline: a producer feeds a bounded queue
+ * with the simulations (or the simulation files of a results directory, which
+ * are only read when a worker is about to run them), and a pool of workers of
+ * the size of the cores of the computer runs them. Only the final results of
+ * a finished simulation are kept, so the memory is bounded by the size of the
+ * pool instead of the number of simulations of the experiment.
+ * 
  * @author Roberto Ulloa
  * @version 1.0, March 2016
  */
@@ -45,10 +53,66 @@ public class ControllerBatch extends Controller {
 	protected ArrayList<Event> events = new ArrayList<Event>();
 
 	/**
-	 * List of simulations that need to be run
+	 * List of simulations that need to be run (they are released once they
+	 * are given to a worker)
 	 */
 	protected ArrayList<Simulation> simulations = null;
 
+	/**
+	 * Simulation files that need to be run (run-from-directory mode), and
+	 * the number of times each of them is run. The files are read when a
+	 * worker is about to run them
+	 */
+	private ArrayList<String> simulation_files = null;
+	private int repetitions = 1;
+
+	/**
+	 * Metrics that replace the metrics of the simulations, or null (see
+	 * {@link #set_metrics(String)})
+	 */
+	private String metrics = null;
+
+	/**
+	 * Write the progressions of all the simulations in a single file, and the
+	 * writer of that file while the simulations run (see ProgressionWriter)
+	 */
+	private boolean shared_progressions = false;
+	private ProgressionWriter progression_writer = null;
+
+	/**
+	 * Simulations that are waiting for a worker, it is bounded so the
+	 * simulations are not read long before they run
+	 */
+	private BlockingQueue<Task> tasks = null;
+
+	/**
+	 * Task that indicates the workers that there are no more simulations
+	 */
+	private static final Task END = new Task(-1, null, null);
+
+	/**
+	 * Simulations that are running
+	 */
+	private final List<Simulation> running = Collections.synchronizedList(new ArrayList<Simulation>());
+
+	/**
+	 * Final results of the simulations, in the order of the tasks (null for
+	 * the simulations that did not run)
+	 */
+	private String[] finished = null;
+
+	/**
+	 * The simulations were cancelled or suspended, so no more simulations are
+	 * started
+	 */
+	private volatile boolean cancelled = false;
+	private volatile boolean suspended = false;
+	/**
+	 * Number of simulations without identifier that received one (see
+	 * {@link #next_identifier()})
+	 */
+	private int unassigned = 0;
+
 	/**
 	 * Constructor of the controller that handles multiple simulations (as
 	 * threads) and alternatively the user batch interface (@see
@@ -67,7 +131,7 @@ public class ControllerBatch extends Controller {
 	}
 
 	/**
-	 * Load a single simulation object from a file
+	 * Load a single simulation object from a file (see SimFile)
 	 * 
 	 * @throws FileNotFoundException
 	 * @throws IOException
@@ -75,15 +139,8 @@ public class ControllerBatch extends Controller {
 	 */
 	private Simulation load_simulation(String simfile)
 			throws FileNotFoundException, IOException, ClassNotFoundException {
-		Simulation s = null;
-		
-		FileInputStream fis = new FileInputStream(simfile);
-		GZIPInputStream gis = new GZIPInputStream(fis);
-		ObjectInputStream ois = new ObjectInputStream(gis);
-		
-		s = (Simulation) ois.readObject();
+		Simulation s = SimFile.load(new File(simfile));
 		s.log = log;
-		ois.close();
 		return s;
 	}
 
@@ -92,6 +149,9 @@ public class ControllerBatch extends Controller {
 	 * specified in repetitions and add them to the simulation list. It also add
 	 * the events that will be happening in all the loaded simulations.
 	 * 
+	 * The files are only checked here, each simulation is read when a worker
+	 * is about to run it (see {@link #play()}).
+	 * 
 	 * @param sim_files
 	 *            the list of simulation files
 	 * @param events
@@ -112,14 +172,12 @@ public class ControllerBatch extends Controller {
 
 		for (Iterator<String> iterator = sim_files.iterator(); iterator.hasNext();) {
 			String simstate_file = (String) iterator.next();
-			for (int j = 0; j < repetitions; j++) {
-				Simulation s = this.load_simulation(simstate_file);
-				if (events != null) {
-					s.events((ArrayList<Event>) events);
-				}
-				simulations.add(s);
+			if (!new File(simstate_file).isFile()) {
+				throw new FileNotFoundException(simstate_file);
 			}
 		}
+		simulation_files = new ArrayList<String>(sim_files);
+		this.repetitions = repetitions;
 	}
 	
 	/**
@@ -140,6 +198,7 @@ public class ControllerBatch extends Controller {
 	public void load_configurations(ArrayList<String> sim_files, ArrayList<Event> events, int repetitions)
 			throws FileNotFoundException, ClassNotFoundException, IOException {
 		simulations = new ArrayList<Simulation>();
+		simulation_files = null;
 		IS_BATCH = true;
 		if (events != null) {
 			this.events = events;
@@ -148,7 +207,9 @@ public class ControllerBatch extends Controller {
 		for (Iterator<String> iterator = sim_files.iterator(); iterator.hasNext();) {
 			String simstate_file = (String) iterator.next();
 			Simulation s = this.load_simulation(simstate_file);
-			s.starter.clean();
+			if (s.starter != null) {
+				s.starter.clean();
+			}
 			s.clean();
 			for (int j = 0; j < repetitions; j++) {
 				// A new random seed is generated
@@ -189,18 +250,24 @@ public class ControllerBatch extends Controller {
 		// Get scanner instance
 		Scanner scanner = new Scanner(new File(csv_file));
 
-		// skip the column titles
-		scanner.nextLine();
-		scanner.useDelimiter(",");
+		// the first 17 columns are always in the same order, any column after
+		// them is optional and identified by its title
+		String[] titles = scanner.nextLine().trim().split(",");
 
 		simulations = new ArrayList<Simulation>();
+		simulation_files = null;
 
 		// Start reading the file
-		while (scanner.hasNext()) {
-			int repetitions = Integer.parseInt(scanner.next());
+		while (scanner.hasNextLine()) {
+			String line = scanner.nextLine().trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] values = line.split(",");
+			int repetitions = Integer.parseInt(values[0].trim());
 			if (repetitions > 0) {
 				Simulation simulation = null;
-				String type = scanner.next();
+				String type = values[1].trim();
 				if (type.equals(M3.class.getSimpleName()))
 					simulation = new M3();
 				else if (type.equals(M4.class.getSimpleName()))
@@ -213,22 +280,96 @@ public class ControllerBatch extends Controller {
 					log.print(-1, "No class was recognized with the type: " + type + ". Please check your csv.");
 					System.exit(1);
 				}
-					
-				simulation.RANDOM_INITIALIZATION = Boolean.parseBoolean(scanner.next());
-				simulation.ITERATIONS = Integer.parseInt(scanner.next());
-				simulation.SPEED = Integer.parseInt(scanner.next());
-				simulation.BUFFERED_SIZE = Integer.parseInt(scanner.next());
-				simulation.ROWS = Integer.parseInt(scanner.next());
-				simulation.COLS = Integer.parseInt(scanner.next());
-				simulation.RADIUS = Integer.parseInt(scanner.next());
-				simulation.FEATURES = Integer.parseInt(scanner.next());
-				simulation.TRAITS = Integer.parseInt(scanner.next());
-				simulation.MUTATION = Float.parseFloat(scanner.next());
-				simulation.SELECTION_ERROR = Float.parseFloat(scanner.next());
-				simulation.ALPHA = Float.parseFloat(scanner.next());
-				simulation.ALPHA_PRIME = Float.parseFloat(scanner.next());
-				simulation.FREQ_DEM = Integer.parseInt(scanner.next());
-				simulation.FREQ_PROP = Integer.parseInt(scanner.next());
+
+				simulation.RANDOM_INITIALIZATION = Boolean.parseBoolean(values[2].trim());
+				simulation.ITERATIONS = Integer.parseInt(values[3].trim());
+				simulation.SPEED = Integer.parseInt(values[4].trim());
+				simulation.BUFFERED_SIZE = Integer.parseInt(values[5].trim());
+				simulation.ROWS = Integer.parseInt(values[6].trim());
+				simulation.COLS = Integer.parseInt(values[7].trim());
+				simulation.RADIUS = Integer.parseInt(values[8].trim());
+				simulation.FEATURES = Integer.parseInt(values[9].trim());
+				simulation.TRAITS = Integer.parseInt(values[10].trim());
+				simulation.MUTATION = Float.parseFloat(values[11].trim());
+				simulation.SELECTION_ERROR = Float.parseFloat(values[12].trim());
+				simulation.ALPHA = Float.parseFloat(values[13].trim());
+				simulation.ALPHA_PRIME = Float.parseFloat(values[14].trim());
+				simulation.FREQ_DEM = Integer.parseInt(values[15].trim());
+				simulation.FREQ_PROP = Integer.parseInt(values[16].trim());
+
+				// optional columns
+				String value = optional_column("GENERATOR", titles, values);
+				if (value != null) {
+					if (!Generator.exists(value)) {
+						log.print(-1, "No random number generator was recognized with the name: " + value
+								+ ". Please check your csv.");
+						System.exit(1);
+					}
+					simulation.GENERATOR = value.toUpperCase();
+				}
+				value = optional_column("PACKED_TRAITS", titles, values);
+				if (value != null) {
+					simulation.PACKED_TRAITS = Boolean.parseBoolean(value);
+				}
+				value = optional_column("SKIP_SAMPLING", titles, values);
+				if (value != null) {
+					simulation.SKIP_SAMPLING = Boolean.parseBoolean(value);
+				}
+				value = optional_column("REJECTION_FREE", titles, values);
+				if (value != null) {
+					simulation.REJECTION_FREE = Boolean.parseBoolean(value);
+				}
+				value = optional_column("INCREMENTAL_VOTES", titles, values);
+				if (value != null) {
+					simulation.INCREMENTAL_VOTES = Boolean.parseBoolean(value);
+				}
+				value = optional_column("MEAN_FIELD", titles, values);
+				if (value != null) {
+					simulation.MEAN_FIELD = Boolean.parseBoolean(value);
+				}
+				value = optional_column("PARALLEL", titles, values);
+				if (value != null) {
+					simulation.PARALLEL = Boolean.parseBoolean(value);
+				}
+				value = optional_column("STOP_RULE", titles, values);
+				if (value != null) {
+					value = value.toUpperCase();
+					if (!value.equals(Simulation.STOP_NONE) && !value.equals(Simulation.STOP_ABSORBING)
+							&& !value.equals(Simulation.STOP_QUIET) && !value.equals(Simulation.STOP_STABLE)) {
+						log.print(-1, "No stop rule was recognized with the name: " + value + ". Please check your csv.");
+						System.exit(1);
+					}
+					simulation.STOP_RULE = value;
+				}
+				value = optional_column("STOP_CHECKPOINTS", titles, values);
+				if (value != null) {
+					simulation.STOP_CHECKPOINTS = Integer.parseInt(value);
+				}
+				value = optional_column("ASYNC_STATISTICS", titles, values);
+				if (value != null) {
+					simulation.ASYNC_STATISTICS = Boolean.parseBoolean(value);
+				}
+				value = optional_column("CHECKPOINTS", titles, values);
+				if (value != null) {
+					try {
+						CheckpointSchedule.parse(value, simulation.ITERATIONS);
+					} catch (IllegalArgumentException e) {
+						log.print(-1, e.getMessage() + ". Please check your csv.");
+						System.exit(1);
+					}
+					simulation.CHECKPOINTS = value.toUpperCase();
+				}
+				value = optional_column("METRICS", titles, values);
+				if (value != null) {
+					try {
+						Metrics.parse(value);
+					} catch (IllegalArgumentException e) {
+						log.print(-1, e.getMessage() + ". Please check your csv.");
+						System.exit(1);
+					}
+					simulation.METRICS = value;
+				}
+
 				simulation.log = log;
 
 				// Generate tasks per repetitions
@@ -241,10 +382,6 @@ public class ControllerBatch extends Controller {
 					}
 					simulations.add(rand.nextInt(simulations.size() + 1), clone);
 				}
-
-				if (scanner.hasNextLine()) {
-					scanner.nextLine();
-				}
 			}
 		}
 
@@ -252,6 +389,52 @@ public class ControllerBatch extends Controller {
 		scanner.close();
 	}
 
+	/**
+	 * Select the metrics (see {@link Metrics}) that all the loaded simulations
+	 * calculate at each checkpoint
+	 * 
+	 * @param metrics
+	 *            names of the metrics separated by semicolons, or ALL
+	 * @throws IllegalArgumentException
+	 *             if a metric is not recognized
+	 */
+	public void set_metrics(String metrics) {
+		Metrics.parse(metrics);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Write the progressions of all the simulations in a single file (see
+	 * ProgressionWriter) instead of one file per simulation
+	 * 
+	 * @param shared
+	 *            true to write a single file
+	 */
+	public void set_shared_progressions(boolean shared) {
+		shared_progressions = shared;
+	}
+
+	/**
+	 * Return the value of an optional column of the experimental design
+	 * 
+	 * @param title
+	 *            the title of the column
+	 * @param titles
+	 *            the titles of the csv file
+	 * @param values
+	 *            the values of the current line
+	 * @return the value, or null if the column or the value are missing
+	 */
+	private static String optional_column(String title, String[] titles, String[] values) {
+		for (int i = 0; i < titles.length && i < values.length; i++) {
+			if (titles[i].trim().equalsIgnoreCase(title)) {
+				String value = values[i].trim();
+				return value.isEmpty() ? null : value;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public void write_results() throws IOException {
 		BufferedWriter writer = new BufferedWriter(
@@ -263,11 +446,13 @@ public class ControllerBatch extends Controller {
 		writer.newLine();
 		writer2.write(Simulation.header());
 		writer2.newLine();
-		for (Simulation w : simulations) {
-			writer.write(w.get_results());
-			writer.newLine();
-			writer2.write(w.get_results());
-			writer2.newLine();
+		for (String results : finished) {
+			if (results != null) {
+				writer.write(results);
+				writer.newLine();
+				writer2.write(results);
+				writer2.newLine();
+			}
 		}
 		writer.close();
 		writer2.close();
@@ -301,20 +486,43 @@ public class ControllerBatch extends Controller {
 	protected void play() {
 
 		IS_BATCH = true;
+		cancelled = false;
+		suspended = false;
 
 		// This is a pool of threads of the size of the cores of the computer
-		exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
-		int id = 0;
-		for (Simulation w : simulations) {
-			if (w.IDENTIFIER <= -1){
-				w.IDENTIFIER = id++;
+		int workers = Runtime.getRuntime().availableProcessors();
+		exec = Executors.newFixedThreadPool(workers);
+		tasks = new ArrayBlockingQueue<Task>(workers);
+		if (simulation_files == null) {
+			finished = new String[simulations.size()];
+		} else {
+			finished = new String[simulation_files.size() * repetitions];
+		}
+		// identifiers of the simulations that do not have one, in order
+		unassigned = 0;
+		if (simulation_files == null) {
+			for (Simulation w : simulations) {
+				if (w.IDENTIFIER <= -1) {
+					w.IDENTIFIER = next_identifier();
+				}
+			}
+		}
+		progression_writer = null;
+		if (shared_progressions) {
+			try {
+				progression_writer = new ProgressionWriter(
+						new File(results_dir + PROGRESSIONS_DIR + ProgressionWriter.FILE_NAME));
+			} catch (IOException e) {
+				e.printStackTrace();
+				log.print(-1, "The shared progressions file could not be created, each simulation writes its own.\n");
 			}
-			w.log = log;
-			w.results_dir = results_dir;
-			exec.submit(w);
 		}
 
+		for (int w = 0; w < workers; w++) {
+			exec.submit(new SimulationWorker());
+		}
+		(new SimulationProducer(workers)).start();
+
 		log.print(-1, "All Tasks Submitted.\n");
 
 		exec.shutdown();
@@ -332,6 +540,13 @@ public class ControllerBatch extends Controller {
 	public void clean_all() {
 		if (simulations != null) {
 			for (Simulation w : simulations) {
+				if (w != null) {
+					w.clean();
+				}
+			}
+		}
+		synchronized (running) {
+			for (Simulation w : running) {
 				w.clean();
 			}
 		}
@@ -339,9 +554,15 @@ public class ControllerBatch extends Controller {
 
 	@Override
 	public void cancel() {
-		if (simulations != null) {
-			for (Simulation w : simulations) {
-				w.cancel();
+		if (exec != null) {
+			synchronized (running) {
+				cancelled = true;
+				for (Simulation w : running) {
+					w.cancel();
+				}
+			}
+			synchronized (running) {
+				running.notifyAll();
 			}
 			exec.shutdownNow();
 		}
@@ -349,15 +570,209 @@ public class ControllerBatch extends Controller {
 
 	@Override
 	public void suspend() {
-		for (Simulation w : simulations) {
-			w.suspend();
+		synchronized (running) {
+			suspended = true;
+			for (Simulation w : running) {
+				w.suspend();
+			}
 		}
 	}
 
 	@Override
 	public void resume() {
-		for (Simulation w : simulations) {
-			w.resume();
+		synchronized (running) {
+			suspended = false;
+			for (Simulation w : running) {
+				w.resume();
+			}
+			running.notifyAll();
+		}
+	}
+
+	/**
+	 * Identifier for the next simulation that does not have one. The
+	 * simulations in memory receive them in order before they run; the
+	 * simulation files (which normally keep their identifiers) when they are
+	 * read.
+	 * 
+	 * @return the identifier
+	 */
+	private synchronized int next_identifier() {
+		return unassigned++;
+	}
+
+	/**
+	 * A simulation waiting for a worker: a simulation in memory, or a file
+	 * that is read by the worker
+	 * 
+	 * @author Roberto Ulloa
+	 * @version 1.0, October 2026
+	 */
+	private static class Task {
+		/**
+		 * Position of the results of the simulation
+		 */
+		private final int index;
+		private final Simulation simulation;
+		private final String file;
+
+		private Task(int index, Simulation simulation, String file) {
+			this.index = index;
+			this.simulation = simulation;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Feeds the queue of the workers with the simulations, or the simulation
+	 * files, that need to be run, and then with an END task for each worker.
+	 * It blocks while the queue is full, so the simulations are not read
+	 * before a worker is about to run them.
+	 * 
+	 * @author Roberto Ulloa
+	 * @version 1.0, October 2026
+	 */
+	private class SimulationProducer extends Thread {
+
+		/**
+		 * Number of workers
+		 */
+		private final int workers;
+
+		private SimulationProducer(int workers) {
+			super("Simulation producer");
+			setDaemon(true);
+			this.workers = workers;
+		}
+
+		public void run() {
+			try {
+				if (simulation_files == null) {
+					for (int i = 0; i < simulations.size(); i++) {
+						if (!feed(new Task(i, simulations.get(i), null))) {
+							return;
+						}
+						// the worker keeps the simulation while it runs
+						simulations.set(i, null);
+					}
+				} else {
+					int i = 0;
+					for (String file : simulation_files) {
+						for (int r = 0; r < repetitions; r++) {
+							if (!feed(new Task(i++, null, file))) {
+								return;
+							}
+						}
+					}
+				}
+				for (int w = 0; w < workers; w++) {
+					if (!feed(END)) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Put a task in the queue, waiting while it is full
+		 * 
+		 * @return false if the simulations were cancelled
+		 */
+		private boolean feed(Task task) throws InterruptedException {
+			while (!cancelled) {
+				if (tasks.offer(task, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the simulations of the queue one after the other, until it finds
+	 * the END task. The simulation files are read just before running them,
+	 * and only the final results of the simulations are kept after they
+	 * finished.
+	 * 
+	 * @author Roberto Ulloa
+	 * @version 1.0, October 2026
+	 */
+	private class SimulationWorker implements Runnable {
+
+		public void run() {
+			try {
+				while (!cancelled) {
+					Task task = tasks.poll(100, TimeUnit.MILLISECONDS);
+					if (task == END) {
+						return;
+					} else if (task != null) {
+						run(task);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Read (if necessary) and run the simulation of a task
+		 */
+		private void run(Task task) throws InterruptedException {
+			// simulations are not read while the others are suspended
+			if (!await_resume()) {
+				return;
+			}
+			Simulation s = task.simulation;
+			try {
+				if (s == null) {
+					s = load_simulation(task.file);
+					if (events.size() > 0) {
+						s.events(events);
+					}
+					if (s.IDENTIFIER <= -1) {
+						s.IDENTIFIER = next_identifier();
+					}
+				}
+				if (metrics != null) {
+					s.METRICS = metrics;
+				}
+				s.log = log;
+				s.results_dir = results_dir;
+				s.progressions = progression_writer;
+
+				synchronized (running) {
+					// nor started, if they were suspended while it was read
+					if (!await_resume()) {
+						return;
+					}
+					running.add(s);
+				}
+				s.call();
+				finished[task.index] = s.get_results();
+			} catch (IOException | ClassNotFoundException | RuntimeException e) {
+				e.printStackTrace();
+				log.print(-1, "The simulation " + (task.file == null ? task.index : task.file) + " failed.\n");
+			} finally {
+				if (s != null) {
+					running.remove(s);
+				}
+			}
+		}
+
+		/**
+		 * Wait while the simulations are suspended
+		 * 
+		 * @return false if the simulations were cancelled
+		 */
+		private boolean await_resume() throws InterruptedException {
+			synchronized (running) {
+				while (suspended && !cancelled) {
+					running.wait();
+				}
+				return !cancelled;
+			}
 		}
 	}
 
@@ -390,6 +805,13 @@ public class ControllerBatch extends Controller {
 			} catch (InterruptedException e) {
 				log.print(-1, "Simulation interrupted.\n");
 			}
+			if (progression_writer != null) {
+				try {
+					progression_writer.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 			try {
 				write_events();
 			} catch (IOException e) {
@@ -2,18 +2,13 @@ package simulator.control;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import simulator.CulturalSimulator;
 import simulator.control.events.Event;
@@ -95,12 +90,8 @@ public class ControllerSingle extends Controller {
 
 			try {
 
-				FileOutputStream fos = new FileOutputStream(simfile);
-				GZIPOutputStream gos = new GZIPOutputStream(fos);
-				ObjectOutputStream oos = new ObjectOutputStream(gos);
-				oos.writeObject(simulation);
+				SimFile.save(simulation, new File(simfile));
 				is_saved = true;
-				oos.close();
 
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -133,14 +124,9 @@ public class ControllerSingle extends Controller {
 		}
 		try {
 
-			FileInputStream fis = new FileInputStream(simfile);
-			GZIPInputStream gis = new GZIPInputStream(fis);
-			ObjectInputStream ois = new ObjectInputStream(gis);
-
-			simulation = (Simulation) ois.readObject();
+			simulation = SimFile.load(new File(simfile));
 
 			is_saved = true;
-			ois.close();
 			CulturalSimulator.clean_informational_spaces();
 			if (simulation.iteration > 0) {
 				simulation.results();
@@ -164,12 +150,8 @@ public class ControllerSingle extends Controller {
 	 *            the file that contains the simulation
 	 */
 	public void load_parameters(String simfile) throws FileNotFoundException, IOException, ClassNotFoundException {
-		FileInputStream fis = new FileInputStream(simfile);
-		GZIPInputStream gis = new GZIPInputStream(fis);
-		ObjectInputStream ois = new ObjectInputStream(gis);
-		simulation = ((Simulation) ois.readObject()).clone();
+		simulation = SimFile.load(new File(simfile)).clone();
 		is_saved = true;
-		ois.close();
 	}
 
 	/**
@@ -178,7 +160,9 @@ public class ControllerSingle extends Controller {
 	 */
 	public void restart_simulation() {
 		if (simulation != null) {
-			simulation.starter.clean();
+			if (simulation.starter != null) {
+				simulation.starter.clean();
+			}
 			simulation.clean();
 			simulation = simulation.clone();
 			CulturalSimulator.clean_informational_spaces();
@@ -202,7 +186,7 @@ public class ControllerSingle extends Controller {
 	 * up the objects
 	 */
 	public void reload_state() {
-		if (simulation != null) {
+		if (simulation != null && simulation.starter != null) {
 			simulation.clean();
 			simulation = simulation.starter;
 			simulation.save_state(); // deep cloning
@@ -219,6 +203,7 @@ public class ControllerSingle extends Controller {
 	public void restore_parameters_to_interface() {
 		CulturalParameters.classSelector.setSelectedItem(simulation.getModelDescription());
 		CulturalParameters.cb_random_initialization.setSelected(simulation.RANDOM_INITIALIZATION);
+		CulturalParameters.cb_parallel.setSelected(simulation.PARALLEL);
 		CulturalParameters.sp_iterations.setValue(simulation.ITERATIONS);
 		CulturalParameters.sp_speed.setValue(simulation.SPEED);
 		CulturalParameters.sp_buffer.setValue(simulation.BUFFERED_SIZE);
@@ -267,6 +252,7 @@ public class ControllerSingle extends Controller {
 		try {
 			simulation = (Simulation) CulturalParameters.classes.get(ind).newInstance();
 			simulation.RANDOM_INITIALIZATION = CulturalParameters.cb_random_initialization.isSelected();
+			simulation.PARALLEL = CulturalParameters.cb_parallel.isSelected();
 			simulation.ITERATIONS = (int) CulturalParameters.sp_iterations.getValue();
 			simulation.SPEED = (int) CulturalParameters.sp_speed.getValue();
 			simulation.BUFFERED_SIZE = (int) CulturalParameters.sp_buffer.getValue();
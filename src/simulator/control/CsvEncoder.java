@@ -0,0 +1,308 @@
+package simulator.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Encodes CSV lines directly into a reusable byte buffer, without creating
+ * strings for the fields. The integers are converted to ASCII digits in
+ * place; the decimals use the same (shortest) representation as
+ * String.valueOf, through a reused StringBuilder.
+ *
+ * The fields are separated by commas automatically. The encoder either keeps
+ * the line in memory (see {@link #toString()}), writes the lines to a file
+ * channel when the buffer is full, or publishes each line in a stream of the
+ * shared ProgressionWriter, so a simulation writes its progression without
+ * any garbage per checkpoint.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CsvEncoder {
+
+	/**
+	 * Line separator of the platform (as BufferedWriter.newLine)
+	 */
+	private static final byte[] NEW_LINE = System.lineSeparator().getBytes();
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+
+	/**
+	 * Encoded bytes, and the number of bytes used
+	 */
+	private byte[] buffer;
+	private int length = 0;
+	/**
+	 * The next field is the first one of its line
+	 */
+	private boolean first = true;
+	/**
+	 * Buffer to format the decimals
+	 */
+	private final StringBuilder decimal = new StringBuilder(32);
+	/**
+	 * Destination of the lines (null if they are kept in memory), and number
+	 * of bytes that are accumulated before writing them
+	 */
+	private final FileChannel channel;
+	private final int flush_size;
+	private ByteBuffer wrapper = null;
+	/**
+	 * Shared destination of the lines (null if they are not shared), and the
+	 * stream of this encoder
+	 */
+	private final ProgressionWriter shared;
+	private final int stream;
+
+	/**
+	 * Creates an encoder that keeps the line in memory
+	 */
+	CsvEncoder() {
+		this(null, 1024);
+	}
+
+	/**
+	 * Creates an encoder that writes its lines to a channel
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param flush_size
+	 *            number of bytes that are accumulated before writing them
+	 */
+	CsvEncoder(FileChannel channel, int flush_size) {
+		this.channel = channel;
+		this.flush_size = Math.max(flush_size, 1);
+		buffer = new byte[Math.max(this.flush_size, 256) + 1024];
+		shared = null;
+		stream = -1;
+	}
+
+	/**
+	 * Creates an encoder that publishes its lines in the shared writer of the
+	 * progressions
+	 *
+	 * @param shared
+	 *            the shared writer
+	 * @param name
+	 *            the name of the progression file of the lines
+	 */
+	CsvEncoder(ProgressionWriter shared, String name) {
+		this.channel = null;
+		this.flush_size = 1;
+		buffer = new byte[1024];
+		this.shared = shared;
+		stream = shared.open(name);
+	}
+
+	/**
+	 * Add an integer field
+	 *
+	 * @param value
+	 *            the value
+	 * @return this encoder
+	 */
+	CsvEncoder field(int value) {
+		return field((long) value);
+	}
+
+	/**
+	 * Add a long field
+	 *
+	 * @param value
+	 *            the value
+	 * @return this encoder
+	 */
+	CsvEncoder field(long value) {
+		separate();
+		if (value == Long.MIN_VALUE) {
+			decimal.setLength(0);
+			decimal.append(value);
+			return append(decimal);
+		}
+		ensure(20);
+		if (value < 0) {
+			buffer[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int end = length + digits;
+		for (int i = end - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length = end;
+		return this;
+	}
+
+	/**
+	 * Add a double field
+	 *
+	 * @param value
+	 *            the value
+	 * @return this encoder
+	 */
+	CsvEncoder field(double value) {
+		separate();
+		decimal.setLength(0);
+		decimal.append(value);
+		return append(decimal);
+	}
+
+	/**
+	 * Add a float field
+	 *
+	 * @param value
+	 *            the value
+	 * @return this encoder
+	 */
+	CsvEncoder field(float value) {
+		separate();
+		decimal.setLength(0);
+		decimal.append(value);
+		return append(decimal);
+	}
+
+	/**
+	 * Add a boolean field
+	 *
+	 * @param value
+	 *            the value
+	 * @return this encoder
+	 */
+	CsvEncoder field(boolean value) {
+		separate();
+		byte[] bytes = value ? TRUE : FALSE;
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Add a text field (or several fields already separated by commas)
+	 *
+	 * @param value
+	 *            the value, in ASCII
+	 * @return this encoder
+	 */
+	CsvEncoder field(CharSequence value) {
+		separate();
+		return append(value);
+	}
+
+	/**
+	 * Finish the current line, and write the buffer to the channel if it is
+	 * full
+	 *
+	 * @throws IOException
+	 *             if the lines cannot be written
+	 */
+	void end_line() throws IOException {
+		ensure(NEW_LINE.length);
+		System.arraycopy(NEW_LINE, 0, buffer, length, NEW_LINE.length);
+		length += NEW_LINE.length;
+		first = true;
+		if (shared != null) {
+			shared.write(stream, buffer, 0, length);
+			length = 0;
+		} else if (channel != null && length >= flush_size) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write all the lines in the buffer to the channel
+	 *
+	 * @throws IOException
+	 *             if the lines cannot be written
+	 */
+	void flush() throws IOException {
+		if (channel == null || length == 0) {
+			return;
+		}
+		if (wrapper == null || wrapper.array() != buffer) {
+			wrapper = ByteBuffer.wrap(buffer);
+		}
+		wrapper.clear();
+		wrapper.limit(length);
+		while (wrapper.hasRemaining()) {
+			channel.write(wrapper);
+		}
+		length = 0;
+	}
+
+	/**
+	 * Write the pending lines and close the channel
+	 *
+	 * @throws IOException
+	 *             if the lines cannot be written
+	 */
+	void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Remove the content of the buffer
+	 */
+	void clear() {
+		length = 0;
+		first = true;
+	}
+
+	/**
+	 * The content of the buffer (the lines that were not written yet)
+	 */
+	@Override
+	public String toString() {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (buffer[i] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Add a comma unless the field is the first of the line
+	 */
+	private void separate() {
+		if (first) {
+			first = false;
+		} else {
+			ensure(1);
+			buffer[length++] = ',';
+		}
+	}
+
+	/**
+	 * Add the characters of a sequence
+	 */
+	private CsvEncoder append(CharSequence value) {
+		int n = value.length();
+		ensure(n);
+		for (int i = 0; i < n; i++) {
+			buffer[length++] = (byte) value.charAt(i);
+		}
+		return this;
+	}
+
+	/**
+	 * Make room for some bytes
+	 */
+	private void ensure(int bytes) {
+		if (length + bytes > buffer.length) {
+			byte[] bigger = new byte[Math.max(2 * buffer.length, length + bytes)];
+			System.arraycopy(buffer, 0, bigger, 0, length);
+			buffer = bigger;
+		}
+	}
+}
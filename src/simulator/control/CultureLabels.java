@@ -0,0 +1,400 @@
+package simulator.control;
+
+import java.util.Arrays;
+
+/**
+ * Connected-component labelling of the cultures of the grid: two agents
+ * belong to the same culture if they have the same traits and they are
+ * connected by a path of adjacent (up, down, left, right) agents with those
+ * traits.
+ *
+ * The labelling is iterative (no recursion, so the size of the cultures is not
+ * limited by the stack). A first raster pass joins each agent with its left
+ * and upper neighbours in a union-find forest in which the root of a tree is
+ * always its smallest agent, i.e. the first agent of the culture in raster
+ * order. A second raster pass numbers the cultures in the order of their
+ * first agent (the same order as a flood fill from the top left corner) and
+ * accumulates their sizes and centroids.
+ *
+ * In parallel mode, the first pass is done by strips of rows in separate
+ * threads, and the strips are joined afterwards along their borders.
+ *
+ * The cultures can also be labelled considering that the agents are adjacent
+ * to all the agents of their Neumann neighbourhood (see
+ * {@link #label_radius(TraitStore, int, int[][])}).
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CultureLabels {
+
+	/**
+	 * Dimensions of the grid
+	 */
+	private final int rows;
+	private final int cols;
+	/**
+	 * Union-find forest of the agents
+	 */
+	private final int[] parent;
+	/**
+	 * Culture of each agent
+	 */
+	private final int[] labels;
+	/**
+	 * First agent (in raster order), size and sum of the rows and columns of
+	 * the members of each culture
+	 */
+	private final int[] first;
+	private final int[] sizes;
+	private final double[] row_sums;
+	private final double[] col_sums;
+	/**
+	 * Buffers of the labelling by radius: hash of the culture of each agent,
+	 * group (culture) of each agent, first agent of each group, start of each
+	 * group in the agents sorted by group, the agents sorted by group, next
+	 * agent of the same bucket, hash table of the groups and first agent of
+	 * each bucket
+	 */
+	private long[] hashes = null;
+	private int[] groups = null;
+	private int[] group_first = null;
+	private int[] group_start = null;
+	private int[] order = null;
+	private int[] next = null;
+	private int[] table = null;
+	private int[] bucket_head = null;
+
+	/**
+	 * Builds the buffers for a grid
+	 *
+	 * @param rows
+	 *            rows of the grid
+	 * @param cols
+	 *            columns of the grid
+	 */
+	CultureLabels(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		int agents = rows * cols;
+		parent = new int[agents];
+		labels = new int[agents];
+		first = new int[agents];
+		sizes = new int[agents];
+		row_sums = new double[agents];
+		col_sums = new double[agents];
+	}
+
+	/**
+	 * Label the cultures of the grid
+	 *
+	 * @param traits
+	 *            the traits of the agents
+	 * @param cultures
+	 *            the matrix that receives the culture of each agent
+	 * @param threads
+	 *            number of threads of the first pass, 1 to do it
+	 *            sequentially
+	 * @return the number of cultures
+	 */
+	int label(final TraitStore traits, int[][] cultures, int threads) {
+		int strips = Math.max(1, Math.min(threads, rows));
+		if (strips == 1) {
+			join(traits, 0, rows);
+		} else {
+			Thread[] workers = new Thread[strips];
+			int first_row = 0;
+			for (int s = 0; s < strips; s++) {
+				final int from = first_row;
+				final int to = first_row + (rows - first_row) / (strips - s);
+				workers[s] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						join(traits, from, to);
+					}
+				});
+				workers[s].start();
+				first_row = to;
+			}
+			for (Thread worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			// join the strips along their borders
+			first_row = 0;
+			for (int s = 0; s < strips; s++) {
+				if (first_row > 0) {
+					for (int agent = first_row * cols; agent < (first_row + 1) * cols; agent++) {
+						if (traits.same_culture(agent, agent - cols)) {
+							union(agent, agent - cols);
+						}
+					}
+				}
+				first_row += (rows - first_row) / (strips - s);
+			}
+		}
+
+		return number(cultures);
+	}
+
+	/**
+	 * Label the cultures of the grid considering that two agents are adjacent
+	 * if they are in the Neumann neighbourhood of the given radius of each
+	 * other. The agents are first grouped by culture (with a hash table), and
+	 * only the agents of the same group are linked. The grid is divided in
+	 * square buckets of side radius / 2 + 1, so the agents of a group that are
+	 * in the same bucket are always adjacent, and an agent only has to look
+	 * for a member of its group in the nearby buckets that are not connected
+	 * to it yet.
+	 *
+	 * @param traits
+	 *            the traits of the agents
+	 * @param radius
+	 *            the radius of the neighbourhood
+	 * @param cultures
+	 *            the matrix that receives the culture of each agent
+	 * @return the number of cultures
+	 */
+	int label_radius(TraitStore traits, int radius, int[][] cultures) {
+		int agents = rows * cols;
+		if (groups == null) {
+			hashes = new long[agents];
+			groups = new int[agents];
+			group_first = new int[agents];
+			group_start = new int[agents + 1];
+			order = new int[agents];
+			next = new int[agents];
+			table = new int[Integer.highestOneBit(Math.max(agents, 1)) * 4];
+		}
+
+		// group the agents by culture
+		Arrays.fill(table, -1);
+		int mask = table.length - 1;
+		int groupsN = 0;
+		for (int agent = 0; agent < agents; agent++) {
+			parent[agent] = agent;
+			long h = traits.culture_hash(agent);
+			hashes[agent] = h;
+			int slot = (int) ((h * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			int g;
+			while ((g = table[slot]) >= 0
+					&& (hashes[group_first[g]] != h || !traits.same_culture(group_first[g], agent))) {
+				slot = (slot + 1) & mask;
+			}
+			if (g < 0) {
+				g = groupsN++;
+				table[slot] = g;
+				group_first[g] = agent;
+				group_start[g + 1] = 0;
+			}
+			groups[agent] = g;
+			group_start[g + 1]++;
+		}
+
+		// sort the agents by group, keeping the raster order inside a group
+		group_start[0] = 0;
+		for (int g = 0; g < groupsN; g++) {
+			group_start[g + 1] += group_start[g];
+		}
+		for (int agent = agents - 1; agent >= 0; agent--) {
+			order[--group_start[groups[agent] + 1]] = agent;
+		}
+		// group_start[g + 1] is now the start of g
+		for (int g = 0; g < groupsN; g++) {
+			group_start[g] = group_start[g + 1];
+		}
+		group_start[groupsN] = agents;
+
+		// buckets and the offsets of the buckets that can have neighbours
+		int side = radius / 2 + 1;
+		int bucket_rows = (rows + side - 1) / side;
+		int bucket_cols = (cols + side - 1) / side;
+		if (bucket_head == null || bucket_head.length != bucket_rows * bucket_cols) {
+			bucket_head = new int[bucket_rows * bucket_cols];
+			Arrays.fill(bucket_head, -1);
+		}
+		int k = (radius + side - 1) / side;
+		int[] offsets_r = new int[(2 * k + 1) * (2 * k + 1)];
+		int[] offsets_c = new int[offsets_r.length];
+		int offsetsN = 0;
+		for (int dr = -k; dr <= k; dr++) {
+			for (int dc = -k; dc <= k; dc++) {
+				int min_r = (dr == 0) ? 0 : (Math.abs(dr) - 1) * side + 1;
+				int min_c = (dc == 0) ? 0 : (Math.abs(dc) - 1) * side + 1;
+				if ((dr != 0 || dc != 0) && min_r + min_c <= radius) {
+					offsets_r[offsetsN] = dr;
+					offsets_c[offsetsN++] = dc;
+				}
+			}
+		}
+
+		// link the agents of each group
+		for (int g = 0; g < groupsN; g++) {
+			int end = group_start[g + 1];
+			if (end - group_start[g] < 2) {
+				continue;
+			}
+			for (int i = group_start[g]; i < end; i++) {
+				int agent = order[i];
+				int r = agent / cols;
+				int c = agent % cols;
+				int br = r / side;
+				int bc = c / side;
+				int bucket = br * bucket_cols + bc;
+				if (bucket_head[bucket] >= 0) {
+					union(agent, bucket_head[bucket]);
+				}
+				next[agent] = bucket_head[bucket];
+				bucket_head[bucket] = agent;
+
+				for (int o = 0; o < offsetsN; o++) {
+					int nbr = br + offsets_r[o];
+					int nbc = bc + offsets_c[o];
+					if (nbr < 0 || nbr >= bucket_rows || nbc < 0 || nbc >= bucket_cols) {
+						continue;
+					}
+					int head = bucket_head[nbr * bucket_cols + nbc];
+					// the members of a bucket are already connected
+					if (head < 0 || find(head) == find(agent)) {
+						continue;
+					}
+					for (int m = head; m >= 0; m = next[m]) {
+						if (Math.abs(m / cols - r) + Math.abs(m % cols - c) <= radius) {
+							union(agent, m);
+							break;
+						}
+					}
+				}
+			}
+			// empty the buckets for the next group
+			for (int i = group_start[g]; i < end; i++) {
+				int agent = order[i];
+				bucket_head[(agent / cols / side) * bucket_cols + (agent % cols) / side] = -1;
+			}
+		}
+
+		return number(cultures);
+	}
+
+	/**
+	 * Second pass: number the cultures in the order of their first agent and
+	 * accumulate their sizes and centroids
+	 */
+	private int number(int[][] cultures) {
+		int culturesN = 0;
+		int agent = 0;
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++, agent++) {
+				int root = find(agent);
+				int label;
+				if (root == agent) {
+					label = culturesN++;
+					first[label] = agent;
+					sizes[label] = 0;
+					row_sums[label] = 0;
+					col_sums[label] = 0;
+				} else {
+					label = labels[root];
+				}
+				labels[agent] = label;
+				cultures[r][c] = label;
+				sizes[label]++;
+				row_sums[label] += r;
+				col_sums[label] += c;
+			}
+		}
+		return culturesN;
+	}
+
+	/**
+	 * First pass over a strip of rows: join each agent with its left and
+	 * upper neighbours of the strip
+	 */
+	private void join(TraitStore traits, int from, int to) {
+		for (int r = from; r < to; r++) {
+			int agent = r * cols;
+			for (int c = 0; c < cols; c++, agent++) {
+				parent[agent] = agent;
+				if (c > 0 && traits.same_culture(agent, agent - 1)) {
+					union(agent, agent - 1);
+				}
+				if (r > from && traits.same_culture(agent, agent - cols)) {
+					union(agent, agent - cols);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Root of the tree of an agent (with path halving)
+	 */
+	private int find(int agent) {
+		while (parent[agent] != agent) {
+			parent[agent] = parent[parent[agent]];
+			agent = parent[agent];
+		}
+		return agent;
+	}
+
+	/**
+	 * Join the trees of two agents, the smallest root is kept
+	 */
+	private void union(int a1, int a2) {
+		int r1 = find(a1);
+		int r2 = find(a2);
+		if (r1 < r2) {
+			parent[r2] = r1;
+		} else if (r2 < r1) {
+			parent[r1] = r2;
+		}
+	}
+
+	/**
+	 * First agent (in raster order) of a culture
+	 *
+	 * @param culture
+	 *            the label of the culture
+	 * @return the agent (row * COLS + column)
+	 */
+	int first(int culture) {
+		return first[culture];
+	}
+
+	/**
+	 * Number of members of a culture
+	 *
+	 * @param culture
+	 *            the label of the culture
+	 * @return the size of the culture
+	 */
+	int size(int culture) {
+		return sizes[culture];
+	}
+
+	/**
+	 * Average row of the members of a culture
+	 *
+	 * @param culture
+	 *            the label of the culture
+	 * @return the row of the centroid
+	 */
+	double row(int culture) {
+		return row_sums[culture] / sizes[culture];
+	}
+
+	/**
+	 * Average column of the members of a culture
+	 *
+	 * @param culture
+	 *            the label of the culture
+	 * @return the column of the centroid
+	 */
+	double col(int culture) {
+		return col_sums[culture] / sizes[culture];
+	}
+}
@@ -0,0 +1,296 @@
+package simulator.control;
+
+/**
+ * Index of the cultures of a state (see {@link CulturePool}) to find the
+ * culture that is most similar to another one without comparing it with all
+ * of them.
+ *
+ * The similarity is the product of the position, size and trait similarities.
+ * The cultures are stored in a KD-tree over their normalized position and
+ * size. Each node also keeps the signature of the traits of its cultures: per
+ * feature, a bit mask of the traits that appear (a trait t sets the bit t mod
+ * 64, so the mask can only overestimate). The similarity with the cultures of
+ * a node is at most (1 - distance) * (1 - size difference) * (features whose
+ * trait is in the mask / features), and the subtrees whose bound cannot reach
+ * the best similarity found so far are not visited.
+ *
+ * The result is the same as the exhaustive search: the first culture of the
+ * pool (in its order) with the highest similarity, if it is positive.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CultureMatcher {
+
+	/**
+	 * Maximum number of cultures of a leaf
+	 */
+	private static final int LEAF = 8;
+	/**
+	 * Tolerance of the bounds to the rounding errors
+	 */
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * The cultures of the index
+	 */
+	private final CulturePool stats;
+	/**
+	 * Coordinates of each culture: normalized row, normalized column and
+	 * normalized size
+	 */
+	private final double[][] points;
+	/**
+	 * Cultures ordered by the tree, each node covers a range of them
+	 */
+	private final int[] order;
+	/**
+	 * Nodes of the tree: range of cultures, children (-1 in the leaves) and
+	 * bounding box
+	 */
+	private int[] from;
+	private int[] to;
+	private int[] left;
+	private int[] right;
+	private double[][] min;
+	private double[][] max;
+	/**
+	 * Signature of the traits of each node (per feature)
+	 */
+	private long[][] signatures;
+	/**
+	 * Number of features
+	 */
+	private final int features;
+	private int nodesN = 0;
+	/**
+	 * Dimensions of the world
+	 */
+	private final int rows;
+	private final int cols;
+	private final int agents;
+
+	/**
+	 * Builds the index of a list of cultures
+	 *
+	 * @param stats
+	 *            the cultures of a state
+	 * @param rows
+	 *            rows of the world
+	 * @param cols
+	 *            columns of the world
+	 * @param agents
+	 *            number of agents of the world
+	 */
+	CultureMatcher(CulturePool stats, int rows, int cols, int agents) {
+		this.stats = stats;
+		this.rows = rows;
+		this.cols = cols;
+		this.agents = agents;
+		int n = stats.cultures();
+		features = stats.features();
+		points = new double[3][n];
+		order = new int[n];
+		for (int i = 0; i < n; i++) {
+			points[0][i] = stats.x(i) / rows;
+			points[1][i] = stats.y(i) / cols;
+			points[2][i] = stats.size(i) / (double) agents;
+			order[i] = i;
+		}
+
+		int capacity = Math.max(1, 4 * n / LEAF + 2);
+		from = new int[capacity];
+		to = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		min = new double[3][capacity];
+		max = new double[3][capacity];
+		signatures = new long[features][capacity];
+		build(0, n);
+	}
+
+	/**
+	 * Builds the subtree of a range of cultures
+	 *
+	 * @return the node of the subtree
+	 */
+	private int build(int start, int end) {
+		int node = nodesN++;
+		from[node] = start;
+		to[node] = end;
+		left[node] = -1;
+		right[node] = -1;
+
+		int widest = 0;
+		for (int d = 0; d < 3; d++) {
+			double lo = Double.POSITIVE_INFINITY;
+			double hi = Double.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				double v = points[d][order[i]];
+				lo = Math.min(lo, v);
+				hi = Math.max(hi, v);
+			}
+			min[d][node] = lo;
+			max[d][node] = hi;
+			if (hi - lo > max[widest][node] - min[widest][node]) {
+				widest = d;
+			}
+		}
+
+		for (int f = 0; f < features; f++) {
+			long signature = 0;
+			for (int i = start; i < end; i++) {
+				signature |= 1L << stats.trait(order[i], f);
+			}
+			signatures[f][node] = signature;
+		}
+
+		if (end - start > LEAF && max[widest][node] > min[widest][node]) {
+			int middle = (start + end) >>> 1;
+			select(widest, start, end, middle);
+			// the children are built after the parent, so they get the next nodes
+			int l = build(start, middle);
+			int r = build(middle, end);
+			left[node] = l;
+			right[node] = r;
+		}
+		return node;
+	}
+
+	/**
+	 * Partially sort a range of cultures so the culture in the middle is the
+	 * one that would be there if the range was sorted by a coordinate
+	 * (quickselect)
+	 */
+	private void select(int d, int start, int end, int middle) {
+		double[] p = points[d];
+		int lo = start;
+		int hi = end - 1;
+		while (lo < hi) {
+			double pivot = p[order[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (p[order[i]] < pivot) {
+					i++;
+				}
+				while (p[order[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int t = order[i];
+					order[i++] = order[j];
+					order[j--] = t;
+				}
+			}
+			if (middle <= j) {
+				hi = j;
+			} else if (middle >= i) {
+				lo = i;
+			} else {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Find the culture of the index that is most similar to a culture
+	 *
+	 * @param pool
+	 *            the cultures of the other state
+	 * @param c
+	 *            the culture of the other state
+	 * @return the position of the most similar culture in the pool, -1 if no
+	 *         culture has a positive similarity
+	 */
+	int best_match(CulturePool pool, int c) {
+		if (stats.cultures() == 0) {
+			return -1;
+		}
+		Search search = new Search(pool, c, pool.x(c) / rows, pool.y(c) / cols, pool.size(c) / (double) agents);
+		search.visit(0);
+		return search.best;
+	}
+
+	/**
+	 * State of a search
+	 */
+	private final class Search {
+		private final CulturePool pool;
+		private final int c;
+		private final double[] q;
+		private int best = -1;
+		private double best_sim = 0;
+
+		private Search(CulturePool pool, int c, double row, double col, double size) {
+			this.pool = pool;
+			this.c = c;
+			this.q = new double[] { row, col, size };
+		}
+
+		/**
+		 * Highest similarity that a culture inside the bounding box of a node
+		 * can have
+		 */
+		private double bound(int node) {
+			double dr = gap(q[0], min[0][node], max[0][node]);
+			double dc = gap(q[1], min[1][node], max[1][node]);
+			double ds = gap(q[2], min[2][node], max[2][node]);
+			double bound = (1 - Math.sqrt(dr * dr + dc * dc)) * (1 - ds);
+			if (bound <= 0) {
+				return bound;
+			}
+			int matches = 0;
+			for (int f = 0; f < features; f++) {
+				if ((signatures[f][node] & (1L << pool.trait(c, f))) != 0) {
+					matches++;
+				}
+			}
+			return bound * matches / features;
+		}
+
+		private double gap(double v, double lo, double hi) {
+			return (v < lo) ? lo - v : (v > hi) ? v - hi : 0;
+		}
+
+		/**
+		 * Check if a bound cannot beat (or tie) the best similarity
+		 */
+		private boolean is_pruned(double bound) {
+			return bound <= 0 || bound < best_sim - EPSILON;
+		}
+
+		private void visit(int node) {
+			if (is_pruned(bound(node))) {
+				return;
+			}
+			if (left[node] < 0) {
+				for (int i = from[node]; i < to[node]; i++) {
+					int other = order[i];
+					double dr = q[0] - points[0][other];
+					double dc = q[1] - points[1][other];
+					double ds = Math.abs(q[2] - points[2][other]);
+					if (is_pruned((1 - Math.sqrt(dr * dr + dc * dc)) * (1 - ds))) {
+						continue;
+					}
+					// exactly as the exhaustive search
+					double sim = pool.compare_positions(c, stats, other, rows, cols)
+							* pool.compare_size(c, stats, other, agents) * pool.compare_traits(c, stats, other);
+					if (sim > best_sim || sim == best_sim && best >= 0 && other < best) {
+						best_sim = sim;
+						best = other;
+					}
+				}
+				return;
+			}
+			// the most promising child first
+			if (bound(left[node]) >= bound(right[node])) {
+				visit(left[node]);
+				visit(right[node]);
+			} else {
+				visit(right[node]);
+				visit(left[node]);
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package simulator.control;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Statistics of the cultures of a checkpoint that have at least 3 members: the
+ * size, the geographical position and the traits of each culture.
+ *
+ * The statistics are kept in parallel arrays of primitives (one entry per
+ * culture, and FEATURES consecutive traits per culture) that are reused in
+ * every checkpoint and only grow when there are more cultures than ever
+ * before, so counting the cultures does not allocate. The traits are copied
+ * from the grid, so the statistics do not change when the agents do (e.g. the
+ * statistics of the starting state).
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class CulturePool implements Serializable {
+	private static final long serialVersionUID = 4122094870529474812L;
+
+	/**
+	 * Number of cultures of the pool
+	 */
+	private int culturesN = 0;
+	/**
+	 * Number of features of each culture
+	 */
+	private int features = 0;
+	/**
+	 * Size, average row, average column and traits of each culture
+	 */
+	private int[] sizes = new int[16];
+	private double[] xs = new double[16];
+	private double[] ys = new double[16];
+	private int[] traits = new int[0];
+
+	/**
+	 * Remove all the cultures of the pool, keeping its buffers
+	 *
+	 * @param features
+	 *            number of features of the cultures that will be added
+	 */
+	void clear(int features) {
+		this.features = features;
+		culturesN = 0;
+	}
+
+	/**
+	 * Copy all the cultures of another pool, reusing the buffers of this one
+	 *
+	 * @param other
+	 *            the pool to copy from
+	 */
+	void copy_from(CulturePool other) {
+		if (sizes.length < other.culturesN) {
+			sizes = new int[other.sizes.length];
+			xs = new double[other.sizes.length];
+			ys = new double[other.sizes.length];
+		}
+		if (traits.length < other.culturesN * other.features) {
+			traits = new int[other.traits.length];
+		}
+		System.arraycopy(other.sizes, 0, sizes, 0, other.culturesN);
+		System.arraycopy(other.xs, 0, xs, 0, other.culturesN);
+		System.arraycopy(other.ys, 0, ys, 0, other.culturesN);
+		System.arraycopy(other.traits, 0, traits, 0, other.culturesN * other.features);
+		culturesN = other.culturesN;
+		features = other.features;
+	}
+
+	/**
+	 * Write the cultures in a simulation file (see SimFile)
+	 *
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if the cultures cannot be written
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(culturesN);
+		out.writeInt(features);
+		for (int c = 0; c < culturesN; c++) {
+			out.writeInt(sizes[c]);
+			out.writeDouble(xs[c]);
+			out.writeDouble(ys[c]);
+		}
+		for (int t = 0; t < culturesN * features; t++) {
+			out.writeInt(traits[t]);
+		}
+	}
+
+	/**
+	 * Read the cultures from a simulation file (see
+	 * {@link #write(DataOutput)}), reusing the buffers of this pool
+	 *
+	 * @param in
+	 *            the input
+	 */
+	void read(ByteBuffer in) {
+		int n = in.getInt();
+		clear(in.getInt());
+		if (sizes.length < n) {
+			sizes = new int[n];
+			xs = new double[n];
+			ys = new double[n];
+		}
+		if (traits.length < n * features) {
+			traits = new int[n * features];
+		}
+		for (int c = 0; c < n; c++) {
+			sizes[c] = in.getInt();
+			xs[c] = in.getDouble();
+			ys[c] = in.getDouble();
+		}
+		for (int t = 0; t < n * features; t++) {
+			traits[t] = in.getInt();
+		}
+		culturesN = n;
+	}
+
+	/**
+	 * Add a culture to the pool
+	 *
+	 * @param size
+	 *            size of the culture
+	 * @param x
+	 *            average row of the members of the culture
+	 * @param y
+	 *            average column of the members of the culture
+	 * @param store
+	 *            the traits of the world
+	 * @param agent
+	 *            a member of the culture, whose traits are copied
+	 */
+	void add(int size, double x, double y, TraitStore store, int agent) {
+		grow();
+		sizes[culturesN] = size;
+		xs[culturesN] = x;
+		ys[culturesN] = y;
+		store.vector(agent, traits, culturesN * features);
+		culturesN++;
+	}
+
+	/**
+	 * Add a culture to the pool
+	 *
+	 * @param size
+	 *            size of the culture
+	 * @param x
+	 *            average row of the members of the culture
+	 * @param y
+	 *            average column of the members of the culture
+	 * @param vector
+	 *            the traits of the culture, that are copied
+	 */
+	void add(int size, double x, double y, int[] vector) {
+		grow();
+		sizes[culturesN] = size;
+		xs[culturesN] = x;
+		ys[culturesN] = y;
+		System.arraycopy(vector, 0, traits, culturesN * features, features);
+		culturesN++;
+	}
+
+	/**
+	 * Make room for one more culture
+	 */
+	private void grow() {
+		if (culturesN == sizes.length) {
+			int capacity = 2 * sizes.length;
+			sizes = Arrays.copyOf(sizes, capacity);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+		}
+		if ((culturesN + 1) * features > traits.length) {
+			traits = Arrays.copyOf(traits, sizes.length * features);
+		}
+	}
+
+	/**
+	 * Number of cultures of the pool
+	 *
+	 * @return the number of cultures
+	 */
+	int cultures() {
+		return culturesN;
+	}
+
+	/**
+	 * Number of members of a culture
+	 *
+	 * @param c
+	 *            the culture
+	 * @return the size of the culture
+	 */
+	int size(int c) {
+		return sizes[c];
+	}
+
+	/**
+	 * Average row of the members of a culture
+	 *
+	 * @param c
+	 *            the culture
+	 * @return the row of the center of the culture
+	 */
+	double x(int c) {
+		return xs[c];
+	}
+
+	/**
+	 * Average column of the members of a culture
+	 *
+	 * @param c
+	 *            the culture
+	 * @return the column of the center of the culture
+	 */
+	double y(int c) {
+		return ys[c];
+	}
+
+	/**
+	 * Trait of a culture
+	 *
+	 * @param c
+	 *            the culture
+	 * @param f
+	 *            the feature
+	 * @return the trait of the culture for the feature
+	 */
+	int trait(int c, int f) {
+		return traits[c * features + f];
+	}
+
+	/**
+	 * Number of features of the cultures
+	 *
+	 * @return the number of features
+	 */
+	int features() {
+		return features;
+	}
+
+	/**
+	 * Compare the position of two cultures
+	 *
+	 * @param c
+	 *            a culture of this pool
+	 * @param other
+	 *            the pool of the other culture
+	 * @param o
+	 *            the other culture
+	 * @param rows
+	 *            rows of the world
+	 * @param cols
+	 *            columns of the world
+	 * @return a normalized value comparing the two positions of the cultures, 1
+	 *         for exactly the same position, and 0 for completely different
+	 *         positions
+	 */
+	double compare_positions(int c, CulturePool other, int o, int rows, int cols) {
+
+		double y_diff = ys[c] / cols - other.ys[o] / cols;
+		double x_diff = xs[c] / rows - other.xs[o] / rows;
+
+		double diff = Math.pow(x_diff * x_diff + y_diff * y_diff, 0.5);
+
+		return 1 - diff;
+	}
+
+	/**
+	 * Compare the size of two cultures
+	 *
+	 * @param c
+	 *            a culture of this pool
+	 * @param other
+	 *            the pool of the other culture
+	 * @param o
+	 *            the other culture
+	 * @param agents
+	 *            number of agents of the world
+	 * @return a normalized value comparing the two sizes of the cultures, 1 for
+	 *         exactly the same size, and 0 for completely different sizes
+	 */
+	double compare_size(int c, CulturePool other, int o, int agents) {
+
+		return 1 - (Math.abs(sizes[c] - other.sizes[o]) / (double) agents);
+
+	}
+
+	/**
+	 * Compare the traits of two cultures
+	 *
+	 * @param c
+	 *            a culture of this pool
+	 * @param other
+	 *            the pool of the other culture
+	 * @param o
+	 *            the other culture
+	 * @return a normalized value comparing the traits of the cultures, 1 for
+	 *         exactly the same traits, and 0 for completely different traits
+	 */
+	double compare_traits(int c, CulturePool other, int o) {
+		double traits_sim = 0;
+		int t1 = c * features;
+		int t2 = o * other.features;
+		for (int f = 0; f < features; f++) {
+			if (traits[t1 + f] == other.traits[t2 + f]) {
+				traits_sim = traits_sim + 1.0;
+			}
+		}
+
+		return traits_sim / features;
+	}
+}
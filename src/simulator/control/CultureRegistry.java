@@ -0,0 +1,181 @@
+package simulator.control;
+
+/**
+ * Number of agents of each cultural vector of the world, regardless of their
+ * position. It is kept up to date by the {@link TraitStore} in each trait
+ * write, so the number of different cultures and the size of the biggest one
+ * are available at any moment without visiting the grid.
+ *
+ * The cultures are identified by {@link TraitStore#culture_hash(int)}, which
+ * is the packed vector itself in the packed stores (so the counts are exact)
+ * and a 64 bits hash in the others. The counts are kept in an open addressing
+ * hash table of primitives, and the number of cultures of each size in a
+ * histogram, so the biggest culture can be followed when it shrinks.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class CultureRegistry {
+
+	/**
+	 * Hash table of the cultures, a slot is empty if its count is 0
+	 */
+	private long[] keys;
+	private int[] counts;
+	/**
+	 * Number of cultures with each size
+	 */
+	private final int[] sizes;
+	/**
+	 * Number of different cultures
+	 */
+	private int culturesN = 0;
+	/**
+	 * Size of the biggest culture
+	 */
+	private int biggest = 0;
+
+	/**
+	 * Builds an empty registry
+	 *
+	 * @param agents
+	 *            the number of agents of the world
+	 */
+	CultureRegistry(int agents) {
+		int capacity = Integer.highestOneBit(Math.max(agents, 1)) * 4;
+		keys = new long[capacity];
+		counts = new int[capacity];
+		sizes = new int[agents + 1];
+	}
+
+	/**
+	 * Count again all the agents of a store
+	 *
+	 * @param traits
+	 *            the traits of the world
+	 */
+	void rebuild(TraitStore traits) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		for (int s = 0; s < sizes.length; s++) {
+			sizes[s] = 0;
+		}
+		culturesN = 0;
+		biggest = 0;
+		int agents = traits.agents();
+		for (int agent = 0; agent < agents; agent++) {
+			add(traits.culture_hash(agent));
+		}
+	}
+
+	/**
+	 * Move an agent from one culture to another
+	 *
+	 * @param from
+	 *            the hash of the previous culture of the agent
+	 * @param to
+	 *            the hash of the new culture of the agent
+	 */
+	void move(long from, long to) {
+		if (from != to) {
+			remove(from);
+			add(to);
+		}
+	}
+
+	/**
+	 * Add an agent to a culture
+	 */
+	private void add(long culture) {
+		int slot = slot(culture);
+		int count = counts[slot]++;
+		if (count == 0) {
+			keys[slot] = culture;
+			culturesN++;
+		} else {
+			sizes[count]--;
+		}
+		sizes[count + 1]++;
+		if (count + 1 > biggest) {
+			biggest = count + 1;
+		}
+	}
+
+	/**
+	 * Remove an agent from a culture
+	 */
+	private void remove(long culture) {
+		int slot = slot(culture);
+		int count = counts[slot]--;
+		sizes[count]--;
+		if (count == biggest && sizes[count] == 0) {
+			biggest--;
+		}
+		if (count == 1) {
+			culturesN--;
+			delete(slot);
+		} else {
+			sizes[count - 1]++;
+		}
+	}
+
+	/**
+	 * Slot of a culture in the table, the first empty slot of its probe
+	 * sequence if it is not there
+	 */
+	private int slot(long culture) {
+		int mask = keys.length - 1;
+		int slot = home(culture, mask);
+		while (counts[slot] != 0 && keys[slot] != culture) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * First slot of the probe sequence of a culture
+	 */
+	private static int home(long culture, int mask) {
+		return (int) ((culture * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+	}
+
+	/**
+	 * Empty a slot, moving back the entries of the probe sequence that follow
+	 * it (so no tombstones are needed)
+	 */
+	private void delete(int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (counts[next] != 0) {
+			int home = home(keys[next], mask);
+			// move the entry if its home is not between the hole and it
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				counts[hole] = counts[next];
+				counts[next] = 0;
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	/**
+	 * Number of different cultures of the world
+	 *
+	 * @return the number of cultures
+	 */
+	public int cultures() {
+		return culturesN;
+	}
+
+	/**
+	 * Size of the biggest culture of the world
+	 *
+	 * @return the number of agents of the biggest culture
+	 */
+	public int biggest() {
+		return biggest;
+	}
+}
@@ -0,0 +1,382 @@
+package simulator.control;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Random number generator of the simulations. The backend is selected by name
+ * (see {@link #create(String, long)}) so it can be written next to the seed in
+ * the results and reproduced later:
+ *
+ * JDK: java.util.Random, the original generator of the simulator.
+ *
+ * SPLITMIX: SplitMix64, the algorithm of java.util.SplittableRandom.
+ *
+ * XOROSHIRO: xoroshiro128++, seeded with SplitMix64.
+ *
+ * The last two are not synchronized, so they avoid the atomic update of
+ * java.util.Random in each draw. The batched methods fill a buffer with the
+ * draws that an inner loop is going to consume, in the same order in which
+ * they would have been drawn one by one.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public abstract class Generator implements Serializable {
+	private static final long serialVersionUID = 6094322763719485710L;
+
+	public static final String JDK = "JDK";
+	public static final String SPLITMIX = "SPLITMIX";
+	public static final String XOROSHIRO = "XOROSHIRO";
+
+	/**
+	 * Golden ratio increment of SplitMix64
+	 */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Creates a generator
+	 *
+	 * @param name
+	 *            the name of the backend (JDK, SPLITMIX or XOROSHIRO)
+	 * @param seed
+	 *            the seed of the generator
+	 * @return a new generator
+	 */
+	public static Generator create(String name, long seed) {
+		Generator g = null;
+		if (name == null || name.equalsIgnoreCase(JDK)) {
+			g = new Jdk();
+		} else if (name.equalsIgnoreCase(SPLITMIX)) {
+			g = new SplitMix();
+		} else if (name.equalsIgnoreCase(XOROSHIRO)) {
+			g = new Xoroshiro();
+		} else {
+			throw new IllegalArgumentException("Unknown random number generator: " + name);
+		}
+		g.setSeed(seed);
+		return g;
+	}
+
+	/**
+	 * Creates a JDK generator that continues the draws of a java.util.Random
+	 * (e.g. the generator of a simulation saved before the generators were
+	 * configurable)
+	 *
+	 * @param random
+	 *            the random, that is used by the generator from now on
+	 * @return the generator
+	 */
+	static Generator wrap(Random random) {
+		return new Jdk(random);
+	}
+
+	/**
+	 * Read a generator from a simulation file (see {@link #write(DataOutput)})
+	 *
+	 * @param in
+	 *            the input
+	 * @return the generator, in the same state as the one that was written
+	 * @throws IOException
+	 *             if the generator is not valid
+	 */
+	public static Generator read(ByteBuffer in) throws IOException {
+		String name = SimFile.read_string(in);
+		Generator g = null;
+		if (name.equals(JDK)) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				g = new Jdk((Random) ois.readObject());
+			} catch (ClassNotFoundException e) {
+				throw new IOException("The state of the generator cannot be read.", e);
+			} finally {
+				ois.close();
+			}
+		} else if (name.equals(SPLITMIX)) {
+			SplitMix splitmix = new SplitMix();
+			splitmix.state = in.getLong();
+			g = splitmix;
+		} else if (name.equals(XOROSHIRO)) {
+			Xoroshiro xoroshiro = new Xoroshiro();
+			xoroshiro.s0 = in.getLong();
+			xoroshiro.s1 = in.getLong();
+			g = xoroshiro;
+		} else {
+			throw new IOException("Unknown random number generator: " + name);
+		}
+		return g;
+	}
+
+	/**
+	 * Check if a generator name is valid
+	 *
+	 * @param name
+	 *            the name of the backend
+	 * @return true if the backend exists
+	 */
+	public static boolean exists(String name) {
+		return name.equalsIgnoreCase(JDK) || name.equalsIgnoreCase(SPLITMIX) || name.equalsIgnoreCase(XOROSHIRO);
+	}
+
+	/**
+	 * Name of the backend
+	 *
+	 * @return the name of the backend
+	 */
+	public abstract String name();
+
+	/**
+	 * Restart the generator with a new seed
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public abstract void setSeed(long seed);
+
+	/**
+	 * Write the name and the exact state of the generator in a simulation
+	 * file (see SimFile). The generator is not modified, so the draws of the
+	 * simulation do not depend on when it is saved.
+	 *
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if the state cannot be written
+	 */
+	public void write(DataOutput out) throws IOException {
+		SimFile.write_string(out, name());
+		write_state(out);
+	}
+
+	/**
+	 * Write the state of the backend
+	 */
+	protected abstract void write_state(DataOutput out) throws IOException;
+
+	/**
+	 * Uniformly distributed long
+	 *
+	 * @return the next random long
+	 */
+	public abstract long nextLong();
+
+	/**
+	 * Uniformly distributed int between 0 (inclusive) and bound (exclusive),
+	 * without modulo bias (Lemire's multiply and reject method)
+	 *
+	 * @param bound
+	 *            the upper bound, must be positive
+	 * @return the next random int
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("bound must be positive");
+		}
+		long m = (nextLong() >>> 32) * bound;
+		long l = m & 0xFFFFFFFFL;
+		if (l < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while (l < threshold) {
+				m = (nextLong() >>> 32) * bound;
+				l = m & 0xFFFFFFFFL;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+
+	/**
+	 * Uniformly distributed float between 0 (inclusive) and 1 (exclusive)
+	 *
+	 * @return the next random float
+	 */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * Uniformly distributed double between 0 (inclusive) and 1 (exclusive)
+	 *
+	 * @return the next random double
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Fill a buffer with ints between 0 (inclusive) and bound (exclusive)
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param length
+	 *            the number of draws
+	 * @param bound
+	 *            the upper bound, must be positive
+	 */
+	public void fill(int[] buffer, int length, int bound) {
+		for (int i = 0; i < length; i++) {
+			buffer[i] = nextInt(bound);
+		}
+	}
+
+	/**
+	 * Fill a buffer with floats between 0 (inclusive) and 1 (exclusive)
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param length
+	 *            the number of draws
+	 */
+	public void fill(float[] buffer, int length) {
+		for (int i = 0; i < length; i++) {
+			buffer[i] = nextFloat();
+		}
+	}
+
+	/**
+	 * One step of SplitMix64
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * java.util.Random, it produces exactly the same draws as before the
+	 * generators were configurable
+	 */
+	static final class Jdk extends Generator {
+		private static final long serialVersionUID = -1571405785236426372L;
+
+		private final Random rand;
+
+		private Jdk() {
+			this(new Random());
+		}
+
+		private Jdk(Random rand) {
+			this.rand = rand;
+		}
+
+		@Override
+		public String name() {
+			return JDK;
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			rand.setSeed(seed);
+		}
+
+		@Override
+		public long nextLong() {
+			return rand.nextLong();
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			return rand.nextInt(bound);
+		}
+
+		@Override
+		public float nextFloat() {
+			return rand.nextFloat();
+		}
+
+		@Override
+		public double nextDouble() {
+			return rand.nextDouble();
+		}
+
+		@Override
+		protected void write_state(DataOutput out) throws IOException {
+			// the serialized form of java.util.Random holds its exact state
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(rand);
+			oos.close();
+			out.writeInt(bytes.size());
+			out.write(bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * SplitMix64
+	 */
+	static final class SplitMix extends Generator {
+		private static final long serialVersionUID = 2707281837541563530L;
+
+		private long state;
+
+		@Override
+		public String name() {
+			return SPLITMIX;
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			state = seed;
+		}
+
+		@Override
+		public long nextLong() {
+			return mix(state += GOLDEN_GAMMA);
+		}
+
+		@Override
+		protected void write_state(DataOutput out) throws IOException {
+			out.writeLong(state);
+		}
+	}
+
+	/**
+	 * xoroshiro128++
+	 */
+	static final class Xoroshiro extends Generator {
+		private static final long serialVersionUID = -5396410253104733412L;
+
+		private long s0;
+		private long s1;
+
+		@Override
+		public String name() {
+			return XOROSHIRO;
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			s0 = mix(seed += GOLDEN_GAMMA);
+			s1 = mix(seed += GOLDEN_GAMMA);
+			// the state cannot be all zeros
+			if ((s0 | s1) == 0) {
+				s1 = GOLDEN_GAMMA;
+			}
+		}
+
+		@Override
+		public long nextLong() {
+			final long t0 = s0;
+			long t1 = s1;
+			final long result = Long.rotateLeft(t0 + t1, 17) + t0;
+			t1 ^= t0;
+			s0 = Long.rotateLeft(t0, 49) ^ t1 ^ (t1 << 21);
+			s1 = Long.rotateLeft(t1, 28);
+			return result;
+		}
+
+		@Override
+		protected void write_state(DataOutput out) throws IOException {
+			out.writeLong(s0);
+			out.writeLong(s1);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package simulator.control;
+
+import java.io.Serializable;
+
+/**
+ * Bernoulli trials of a rare event (e.g. mutation or selection error) sampled
+ * by skipping. Instead of drawing a random number per trial, the number of
+ * trials until the next success is drawn from a geometric distribution, so
+ * random numbers are only drawn when the event happens. The sequence of
+ * successes has exactly the same distribution as independent trials with
+ * probability p.
+ *
+ * The gap is sampled again when the probability changes (e.g. by a parameter
+ * change event); this is valid because the trials are memoryless.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class GeometricSkip implements Serializable {
+	private static final long serialVersionUID = -5023817634029137761L;
+
+	/**
+	 * Probability of the current gap, negative if there is no gap yet
+	 */
+	private float p = -1;
+	/**
+	 * log(1 - p)
+	 */
+	private double log_q = 0;
+	/**
+	 * Trials left until the next success (the success included)
+	 */
+	private long countdown = 0;
+
+	/**
+	 * Perform a trial
+	 *
+	 * @param p
+	 *            the probability of success
+	 * @param rand
+	 *            the random number generator
+	 * @return true if the event happens in this trial
+	 */
+	public boolean next(float p, Generator rand) {
+		if (p != this.p) {
+			this.p = p;
+			log_q = Math.log(1.0 - p);
+			countdown = gap(rand);
+		}
+		if (--countdown > 0) {
+			return false;
+		}
+		countdown = gap(rand);
+		return true;
+	}
+
+	/**
+	 * Sample the number of trials until the next success (inverse transform
+	 * of the geometric distribution)
+	 */
+	private long gap(Generator rand) {
+		if (p <= 0) {
+			return Long.MAX_VALUE;
+		} else if (p >= 1) {
+			return 1;
+		}
+		return inverse(log_q, rand);
+	}
+
+	/**
+	 * Sample the number of Bernoulli trials until the first success, the
+	 * success included
+	 *
+	 * @param p
+	 *            the probability of success of each trial
+	 * @param rand
+	 *            the random number generator
+	 * @return the number of trials, Long.MAX_VALUE if p is 0
+	 */
+	public static long sample(double p, Generator rand) {
+		if (p <= 0) {
+			return Long.MAX_VALUE;
+		} else if (p >= 1) {
+			return 1;
+		}
+		return inverse(Math.log(1.0 - p), rand);
+	}
+
+	/**
+	 * Inverse transform of the geometric distribution
+	 */
+	private static long inverse(double log_q, Generator rand) {
+		// u in (0, 1]
+		double u = 1.0 - rand.nextDouble();
+		double g = Math.floor(Math.log(u) / log_q) + 1;
+		return (g >= Long.MAX_VALUE) ? Long.MAX_VALUE : (long) g;
+	}
+}
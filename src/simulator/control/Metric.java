@@ -0,0 +1,53 @@
+package simulator.control;
+
+/**
+ * A group of result columns that is calculated at each checkpoint. The
+ * metrics that a simulation calculates are selected by name with the METRICS
+ * parameter (see {@link Metrics}), and the columns of the metrics that are not
+ * selected are written as NA.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public interface Metric {
+
+	/**
+	 * Name of the metric, used to select it
+	 *
+	 * @return the name of the metric
+	 */
+	public String name();
+
+	/**
+	 * Titles of the CSV columns of the metric
+	 *
+	 * @return the columns of the metric
+	 */
+	public String[] columns();
+
+	/**
+	 * Relative cost of the metric per checkpoint: {@link Metrics#COST_FREE},
+	 * {@link Metrics#COST_AGENTS}, {@link Metrics#COST_LABELLING} or
+	 * {@link Metrics#COST_MATCHING}
+	 *
+	 * @return the cost of the metric
+	 */
+	public int cost();
+
+	/**
+	 * Calculate the metric for the current state of a simulation
+	 *
+	 * @param simulation
+	 *            the simulation
+	 */
+	public void calculate(Simulation simulation);
+
+	/**
+	 * Values of the columns of the metric, separated by commas
+	 *
+	 * @param simulation
+	 *            the simulation
+	 * @return the CSV values of the metric
+	 */
+	public String values(Simulation simulation);
+}
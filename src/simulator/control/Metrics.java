@@ -0,0 +1,207 @@
+package simulator.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Registry of the metrics (see {@link Metric}) that the simulations can
+ * calculate at each checkpoint. The built-in metrics are always in the results
+ * (as NA when they are not selected); other metrics can be registered and
+ * their columns are added at the end of the results.
+ *
+ * The metrics of a simulation are selected with a list of names separated by
+ * semicolons (e.g. "CULTURES;ENERGY"), or ALL for all the metrics.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class Metrics {
+
+	/**
+	 * Costs of the metrics: constant, a pass over the agents, a labelling of
+	 * the cultures of the grid, and a matching of the cultures with the
+	 * cultures of the starting state
+	 */
+	public static final int COST_FREE = 0;
+	public static final int COST_AGENTS = 1;
+	public static final int COST_LABELLING = 2;
+	public static final int COST_MATCHING = 3;
+
+	/**
+	 * Selection of all the metrics
+	 */
+	public static final String ALL = "ALL";
+
+	/**
+	 * Built-in metrics
+	 */
+	public static final Metric ENERGY = new Builtin(Simulation.METRIC_ENERGY, "ENERGY", COST_AGENTS, "energy",
+			"pixel_similarity");
+	public static final Metric CULTURES = new Builtin(Simulation.METRIC_CULTURES, "CULTURES", COST_LABELLING,
+			"cultures", "cultures_at_least_3", "biggest_culture");
+	public static final Metric CULTURE_SIMILARITY = new Builtin(Simulation.METRIC_CULTURE_SIMILARITY,
+			"CULTURE_SIMILARITY", COST_MATCHING, "full_sim", "pos_sim", "size_sim", "traits_sim");
+	public static final Metric NEUMANN_CULTURES = new Builtin(Simulation.METRIC_NEUMANN_CULTURES, "NEUMANN_CULTURES",
+			COST_LABELLING, "neumann_cultures", "neumann_cultures_at_least_3", "biggest_neumann_culture");
+	public static final Metric NEUMANN_SIMILARITY = new Builtin(Simulation.METRIC_NEUMANN_SIMILARITY,
+			"NEUMANN_SIMILARITY", COST_MATCHING, "neumann_full_sim", "neumann_pos_sim", "neumann_size_sim",
+			"neumann_traits_sim");
+	public static final Metric INSTITUTIONS = new Builtin(Simulation.METRIC_INSTITUTIONS, "INSTITUTIONS",
+			COST_AGENTS, "institutions", "biggest_institution", "pixel_institution_similarity");
+	public static final Metric TRAITS = new Builtin(Simulation.METRIC_TRAITS, "TRAITS", COST_AGENTS, "alife",
+			"foreign");
+	public static final Metric GLOBAL_CULTURES = new Builtin(Simulation.METRIC_GLOBAL_CULTURES, "GLOBAL_CULTURES",
+			COST_FREE, "global_cultures", "biggest_global_culture");
+
+	/**
+	 * All the metrics by name, the built-in ones first
+	 */
+	private static final LinkedHashMap<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+	static {
+		for (Metric m : new Metric[] { ENERGY, CULTURES, CULTURE_SIMILARITY, NEUMANN_CULTURES, NEUMANN_SIMILARITY,
+				INSTITUTIONS, TRAITS, GLOBAL_CULTURES }) {
+			metrics.put(m.name(), m);
+		}
+	}
+	/**
+	 * Number of built-in metrics
+	 */
+	private static final int BUILTIN = metrics.size();
+	/**
+	 * The metrics registered apart from the built-in ones (replaced in each
+	 * registration, so it can be read without copying it)
+	 */
+	private static volatile List<Metric> registered = Collections.emptyList();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Register a new metric, its columns are added at the end of the results
+	 *
+	 * @param metric
+	 *            the metric
+	 */
+	public static synchronized void register(Metric metric) {
+		String name = metric.name().toUpperCase();
+		if (name.equals(ALL) || metrics.containsKey(name)) {
+			throw new IllegalArgumentException("There is already a metric with the name: " + name);
+		}
+		metrics.put(name, metric);
+		List<Metric> all = new ArrayList<Metric>(metrics.values());
+		registered = Collections.unmodifiableList(new ArrayList<Metric>(all.subList(BUILTIN, all.size())));
+	}
+
+	/**
+	 * Return a metric by its name
+	 *
+	 * @param name
+	 *            the name of the metric
+	 * @return the metric, or null if there is no metric with that name
+	 */
+	public static synchronized Metric get(String name) {
+		return metrics.get(name.trim().toUpperCase());
+	}
+
+	/**
+	 * Parse a selection of metrics
+	 *
+	 * @param selection
+	 *            names of the metrics separated by semicolons, or ALL
+	 * @return the selected metrics, ordered by cost (so the metrics that
+	 *         reuse the work of cheaper ones are calculated after them)
+	 */
+	public static synchronized List<Metric> parse(String selection) {
+		List<Metric> selected = new ArrayList<Metric>();
+		List<Metric> named = new ArrayList<Metric>();
+		if (selection == null || selection.trim().equalsIgnoreCase(ALL)) {
+			selection = "";
+			named.addAll(metrics.values());
+		}
+		for (String name : selection.split(";")) {
+			if (name.trim().length() == 0) {
+				continue;
+			}
+			Metric m = get(name);
+			if (m == null) {
+				throw new IllegalArgumentException("No metric was recognized with the name: " + name.trim());
+			}
+			named.add(m);
+		}
+		for (int cost = COST_FREE; cost <= COST_MATCHING; cost++) {
+			for (Metric m : metrics.values()) {
+				if (named.contains(m) && Math.max(COST_FREE, Math.min(m.cost(), COST_MATCHING)) == cost) {
+					selected.add(m);
+				}
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Metrics that were registered apart from the built-in ones
+	 *
+	 * @return the registered metrics
+	 */
+	public static List<Metric> registered() {
+		return registered;
+	}
+
+	/**
+	 * Number of columns of a metric
+	 *
+	 * @param metric
+	 *            the metric
+	 * @return the number of columns
+	 */
+	static int width(Metric metric) {
+		if (metric instanceof Builtin) {
+			return ((Builtin) metric).columns.length;
+		}
+		return metric.columns().length;
+	}
+
+	/**
+	 * A metric that is calculated by the simulation itself
+	 */
+	private static final class Builtin implements Metric {
+		private final int id;
+		private final String name;
+		private final int cost;
+		private final String[] columns;
+
+		private Builtin(int id, String name, int cost, String... columns) {
+			this.id = id;
+			this.name = name;
+			this.cost = cost;
+			this.columns = columns;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public String[] columns() {
+			return columns.clone();
+		}
+
+		@Override
+		public int cost() {
+			return cost;
+		}
+
+		@Override
+		public void calculate(Simulation simulation) {
+			simulation.calculate_metric(id);
+		}
+
+		@Override
+		public String values(Simulation simulation) {
+			return simulation.metric_values(id);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package simulator.control;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Immutable index of the Neumann neighbourhoods of radius r of a (non
+ * toroidal) grid. The agents are identified by their position in the grid
+ * (row * COLS + column).
+ *
+ * Agents that are at least r cells away from the borders have all the
+ * possible neighbours, so their neighbours are obtained from a single offset
+ * stencil. The neighbourhood of the agents near the borders is clipped, and it
+ * is stored explicitly in a compact (CSR) table. The order of the neighbours is
+ * the same in both cases, so the neighbour n of an agent does not depend on
+ * the representation.
+ *
+ * Indexes are shared by all the simulations that have the same ROWS, COLS and
+ * RADIUS (see {@link #get(int, int, int)}).
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class Neighbourhood {
+
+	/**
+	 * Indexes that are currently in use by any simulation
+	 */
+	private static final HashMap<String, WeakReference<Neighbourhood>> cache = new HashMap<String, WeakReference<Neighbourhood>>();
+
+	/**
+	 * Dimensions of the grid
+	 */
+	private final int rows;
+	private final int cols;
+	/**
+	 * Offsets (in agents) of the neighbours of an interior agent
+	 */
+	private final int[] stencil;
+	/**
+	 * Indicates if the grid has at least one agent whose neighbourhood is not
+	 * clipped by the borders
+	 */
+	private final boolean has_interior;
+	/**
+	 * Start of the neighbours of each agent in the border table, the
+	 * neighbours of the interior agents are not stored (empty ranges)
+	 */
+	private final int[] start;
+	/**
+	 * Neighbours of the agents near the borders
+	 */
+	private final int[] border;
+
+	/**
+	 * Return the index for the given dimensions, building it only if no other
+	 * simulation is using it.
+	 *
+	 * @param rows
+	 *            rows of the world
+	 * @param cols
+	 *            columns of the world
+	 * @param radius
+	 *            radius of the Neumann neighbourhood
+	 * @return the (shared) neighbourhood index
+	 */
+	public static synchronized Neighbourhood get(int rows, int cols, int radius) {
+		String key = rows + "x" + cols + "(" + radius + ")";
+		WeakReference<Neighbourhood> ref = cache.get(key);
+		Neighbourhood n = (ref == null) ? null : ref.get();
+		if (n == null) {
+			n = new Neighbourhood(rows, cols, radius);
+			cache.put(key, new WeakReference<Neighbourhood>(n));
+		}
+		return n;
+	}
+
+	/**
+	 * Builds the index
+	 *
+	 * @param rows
+	 *            rows of the world
+	 * @param cols
+	 *            columns of the world
+	 * @param radius
+	 *            radius of the Neumann neighbourhood
+	 */
+	private Neighbourhood(int rows, int cols, int radius) {
+		this.rows = rows;
+		this.cols = cols;
+
+		// The order of the offsets is the order in which the neighbours have
+		// always been visited
+		int max = radius * radius + (radius + 1) * (radius + 1) - 1;
+		int[] dr = new int[Math.max(max, 0)];
+		int[] dc = new int[Math.max(max, 0)];
+		int n = 0;
+		for (int i = 0; i <= radius; i++) {
+			for (int j = 0; j <= radius; j++) {
+				if (j + i + 2 <= radius) {
+					dr[n] = i + 1;
+					dc[n++] = j + 1;
+					dr[n] = -i - 1;
+					dc[n++] = -j - 1;
+				}
+				if (j + i <= radius && (j != 0 || i != 0)) {
+					dr[n] = -i;
+					dc[n++] = j;
+					dr[n] = i;
+					dc[n++] = -j;
+				}
+			}
+		}
+
+		stencil = new int[n];
+		for (int k = 0; k < n; k++) {
+			stencil[k] = dr[k] * cols + dc[k];
+		}
+		has_interior = rows > 2 * radius && cols > 2 * radius;
+
+		// count the clipped neighbourhoods
+		start = new int[rows * cols + 1];
+		int total = 0;
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				start[r * cols + c] = total;
+				if (!is_interior(r, c, radius)) {
+					for (int k = 0; k < n; k++) {
+						if (inside(r + dr[k], c + dc[k])) {
+							total++;
+						}
+					}
+				}
+			}
+		}
+		start[rows * cols] = total;
+
+		// fill the clipped neighbourhoods
+		border = new int[total];
+		int b = 0;
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (!is_interior(r, c, radius)) {
+					for (int k = 0; k < n; k++) {
+						if (inside(r + dr[k], c + dc[k])) {
+							border[b++] = (r + dr[k]) * cols + c + dc[k];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the neighbourhood of a cell is not clipped by the borders
+	 */
+	private boolean is_interior(int r, int c, int radius) {
+		return has_interior && r >= radius && r < rows - radius && c >= radius && c < cols - radius;
+	}
+
+	/**
+	 * Check if a cell is inside the grid
+	 */
+	private boolean inside(int r, int c) {
+		return r >= 0 && r < rows && c >= 0 && c < cols;
+	}
+
+	/**
+	 * Number of neighbours of an agent
+	 *
+	 * @param agent
+	 *            the agent (row * COLS + column)
+	 * @return the number of neighbours
+	 */
+	public int size(int agent) {
+		int s = start[agent + 1] - start[agent];
+		return (s == 0 && has_interior) ? stencil.length : s;
+	}
+
+	/**
+	 * Return the nth neighbour of an agent
+	 *
+	 * @param agent
+	 *            the agent (row * COLS + column)
+	 * @param n
+	 *            the index of the neighbour, between 0 and size(agent) - 1
+	 * @return the neighbour (row * COLS + column)
+	 */
+	public int get(int agent, int n) {
+		int s = start[agent];
+		return (start[agent + 1] == s && has_interior) ? agent + stencil[n] : border[s + n];
+	}
+
+	/**
+	 * Maximum number of neighbours of an agent
+	 *
+	 * @return the number of neighbours of an interior agent
+	 */
+	public int max() {
+		return stencil.length;
+	}
+
+}
@@ -0,0 +1,833 @@
+package simulator.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Columnar binary format of the progressions of a results directory (see
+ * {@link #FILE_NAME}). The progression lines repeat all the parameters of the
+ * simulation in every checkpoint and the analysis has to parse them back, so
+ * the table keeps the progression of each simulation column by column:
+ *
+ * - a column with the same value in all the lines (the parameters, and the
+ * metrics that were not selected) is stored once;
+ *
+ * - a column of integers is stored as variable-length longs, as deltas of the
+ * previous line when it is smaller (e.g. iterations, durations, counters);
+ *
+ * - a column of decimals is stored as a vector of doubles;
+ *
+ * - any other column is stored as indexes of a dictionary of its values.
+ *
+ * The numbers are only typed if they print exactly as they were read, so
+ * {@link #export(File)} reproduces the progression files byte by byte. The
+ * file starts with a magic number (CPRG), the version and the codec of the
+ * rest of the file (see SimFile#CODEC); then follows one block per simulation
+ * (the name of the progression file, the header, the number of lines and the
+ * columns). The headers are stored once, and the blocks refer to them.
+ *
+ * {@link #aggregate(File, File)} computes the statistics of the last line of
+ * the simulations of each configuration directly from the table.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class ProgressionTable {
+
+	/**
+	 * Name of the file, in the progressions directory
+	 */
+	public static final String FILE_NAME = "progressions.columns";
+
+	/**
+	 * Columns of the header that identify a configuration (see
+	 * {@link #aggregate(File, File)})
+	 */
+	public static final String[] CONFIGURATION = { "model", "random_initialization", "iterations", "speed", "rows",
+			"cols", "radius", "features", "traits", "mutation", "selection_error", "institutional_influence",
+			"agent_loyalty", "democracy", "propaganda", "generator", "skip_sampling", "rejection_free",
+			"incremental_votes", "mean_field", "parallel", "metrics", "async_statistics", "checkpoints" };
+	/**
+	 * Columns of the header that are not aggregated
+	 */
+	private static final String[] IGNORED = { "id", "timestamp", "seed" };
+
+	private static final int MAGIC = 0x43505247;
+	private static final short VERSION = 1;
+	private static final byte CODEC_NONE = 0;
+	private static final byte CODEC_DEFLATE = 1;
+
+	/**
+	 * Encodings of the columns
+	 */
+	private static final byte CONSTANT = 0;
+	private static final byte LONG = 1;
+	private static final byte LONG_DELTA = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte TEXT = 4;
+
+	/**
+	 * Line separator of the progression files (see CsvEncoder)
+	 */
+	private static final String NEW_LINE = System.lineSeparator();
+
+	private ProgressionTable() {
+	}
+
+	/**
+	 * Write the table of the progressions of a directory. If the progressions
+	 * were written in a single file (see ProgressionWriter), the progression
+	 * files are exported first. The progression files are kept.
+	 *
+	 * @param directory
+	 *            the progressions directory of a results directory
+	 * @return the number of progression files in the table
+	 * @throws IOException
+	 *             if the progressions cannot be read or the table cannot be
+	 *             written
+	 */
+	public static int build(File directory) throws IOException {
+		File store = new File(directory, ProgressionWriter.FILE_NAME);
+		if (store.isFile()) {
+			ProgressionWriter.export(store);
+		}
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".csv");
+			}
+		});
+		if (files == null) {
+			throw new IOException("Not a directory of progressions: " + directory);
+		}
+		Arrays.sort(files);
+
+		DataOutputStream out = create(new File(directory, FILE_NAME));
+		try {
+			HashMap<String, Integer> headers = new HashMap<String, Integer>();
+			for (File file : files) {
+				write_progression(out, file, headers);
+			}
+		} finally {
+			out.close();
+		}
+		return files.length;
+	}
+
+	/**
+	 * Reproduce the progression files of the simulations from a table, in the
+	 * same directory. The existing progression files with the same names are
+	 * replaced.
+	 *
+	 * @param file
+	 *            the table of progressions
+	 * @return the number of progression files
+	 * @throws IOException
+	 *             if the table cannot be read or the files cannot be written
+	 */
+	public static int export(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		DataInputStream in = open(file);
+		Writer out = null;
+		String name = null;
+		int files = 0;
+		try {
+			ArrayList<String[]> headers = new ArrayList<String[]>();
+			Block block;
+			while ((block = read_block(in, headers)) != null) {
+				if (!block.name.equals(name)) {
+					// the blocks of the same file are consecutive
+					if (out != null) {
+						out.close();
+					}
+					name = block.name;
+					out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new File(directory,
+							name)), 1 << 16), "utf-8");
+					files++;
+				}
+				if (block.header_written) {
+					write_line(out, block.header);
+				}
+				String[] line = new String[block.columns.length];
+				for (int r = 0; r < block.rows; r++) {
+					for (int c = 0; c < line.length; c++) {
+						line[c] = block.columns[c].text(r);
+					}
+					write_line(out, line);
+				}
+			}
+		} finally {
+			in.close();
+			if (out != null) {
+				out.close();
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Compute the statistics of the last line of the progression of each
+	 * simulation, grouped by configuration (see {@link #CONFIGURATION}): the
+	 * number of simulations, and the mean, standard deviation, minimum and
+	 * maximum of each numeric column (NA if no simulation has a number).
+	 *
+	 * @param file
+	 *            the table of progressions
+	 * @param output
+	 *            the CSV file of the statistics (it is replaced)
+	 * @return the number of configurations
+	 * @throws IOException
+	 *             if the table cannot be read or the statistics cannot be
+	 *             written
+	 */
+	public static int aggregate(File file, File output) throws IOException {
+		LinkedHashMap<String, Aggregate> configurations = new LinkedHashMap<String, Aggregate>();
+		String[] columns = null;
+		DataInputStream in = open(file);
+		try {
+			ArrayList<String[]> headers = new ArrayList<String[]>();
+			// the last block with lines of the current progression file
+			Block last = null;
+			String name = null;
+			while (true) {
+				Block block = read_block(in, headers);
+				if (block == null || !block.name.equals(name)) {
+					if (last != null) {
+						if (columns == null) {
+							columns = aggregated(last.header);
+						}
+						String key = configuration(last, last.rows - 1);
+						Aggregate aggregate = configurations.get(key);
+						if (aggregate == null) {
+							aggregate = new Aggregate(columns.length);
+							configurations.put(key, aggregate);
+						}
+						aggregate.add(last, columns);
+					}
+					if (block == null) {
+						break;
+					}
+					last = null;
+					name = block.name;
+				}
+				if (block.rows > 0) {
+					last = block;
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(output)), "utf-8");
+		try {
+			StringBuilder header = new StringBuilder();
+			for (String c : CONFIGURATION) {
+				header.append(c).append(',');
+			}
+			header.append("simulations");
+			if (columns != null) {
+				for (String c : columns) {
+					header.append(',').append(c).append("_mean,").append(c).append("_sd,").append(c)
+							.append("_min,").append(c).append("_max");
+				}
+			}
+			out.write(header.toString());
+			out.write(NEW_LINE);
+			for (String key : configurations.keySet()) {
+				out.write(key);
+				configurations.get(key).write(out);
+				out.write(NEW_LINE);
+			}
+		} finally {
+			out.close();
+		}
+		return configurations.size();
+	}
+
+	/**
+	 * Check if a file is a table of progressions
+	 *
+	 * @param file
+	 *            the file
+	 * @return true if it starts with the magic number of the table
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static boolean is_table(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Create a table, writing the header of the file
+	 */
+	private static DataOutputStream create(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		boolean deflate = SimFile.CODEC.equals(SimFile.DEFLATE);
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeShort(VERSION);
+		header.writeByte(deflate ? CODEC_DEFLATE : CODEC_NONE);
+		if (deflate) {
+			out = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 1 << 16);
+		}
+		return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+	}
+
+	/**
+	 * Open a table, reading the header of the file
+	 */
+	private static DataInputStream open(File file) throws IOException {
+		DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (header.readInt() != MAGIC) {
+				throw new IOException(file + " is not a table of progressions.");
+			}
+			short version = header.readShort();
+			if (version > VERSION) {
+				throw new IOException(file + " was written by a newer version (" + version + ").");
+			}
+			byte codec = header.readByte();
+			if (codec == CODEC_DEFLATE) {
+				return new DataInputStream(new BufferedInputStream(new InflaterInputStream(header), 1 << 16));
+			} else if (codec != CODEC_NONE) {
+				throw new IOException(file + " has an unknown codec (" + codec + ").");
+			}
+			return header;
+		} catch (IOException e) {
+			header.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the blocks of a progression file: a new block starts at each
+	 * header line
+	 */
+	private static void write_progression(DataOutput out, File file, HashMap<String, Integer> headers)
+			throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"), 1 << 16);
+		try {
+			String header = null;
+			boolean written = false;
+			ArrayList<String[]> lines = new ArrayList<String[]>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (line.startsWith("id,")) {
+					if (written || !lines.isEmpty()) {
+						write_block(out, file, header, written, lines, headers);
+					}
+					header = line;
+					written = true;
+					lines.clear();
+				} else {
+					lines.add(line.split(",", -1));
+				}
+			}
+			if (written || !lines.isEmpty()) {
+				write_block(out, file, header, written, lines, headers);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write a block: the name, the header, the lines and the columns
+	 */
+	private static void write_block(DataOutput out, File file, String header, boolean written,
+			ArrayList<String[]> lines, HashMap<String, Integer> headers) throws IOException {
+		if (header == null) {
+			// the progressions of a stored simulation are continued without
+			// header (see Simulation#simulation_setup)
+			header = Simulation.header();
+			if (header.split(",", -1).length != lines.get(0).length) {
+				StringBuilder names = new StringBuilder("column_1");
+				for (int c = 2; c <= lines.get(0).length; c++) {
+					names.append(",column_").append(c);
+				}
+				header = names.toString();
+			}
+		}
+		int columns = header.split(",", -1).length;
+		for (String[] line : lines) {
+			if (line.length != columns) {
+				throw new IOException(file + " has a line with " + line.length + " columns instead of " + columns
+						+ ".");
+			}
+		}
+
+		SimFile.write_string(out, file.getName());
+		Integer index = headers.get(header);
+		if (index == null) {
+			write_varint(out, headers.size());
+			SimFile.write_string(out, header);
+			headers.put(header, headers.size());
+		} else {
+			write_varint(out, index);
+		}
+		out.writeBoolean(written);
+		write_varint(out, lines.size());
+		if (lines.isEmpty()) {
+			return;
+		}
+
+		long[] longs = new long[lines.size()];
+		for (int c = 0; c < columns; c++) {
+			write_column(out, lines, c, longs);
+		}
+	}
+
+	/**
+	 * Write a column with the smallest encoding that reproduces its values
+	 */
+	private static void write_column(DataOutput out, ArrayList<String[]> lines, int c, long[] longs)
+			throws IOException {
+		int rows = lines.size();
+		String first = lines.get(0)[c];
+		boolean constant = true;
+		boolean integers = true;
+		boolean decimals = true;
+		for (int r = 0; r < rows; r++) {
+			String value = lines.get(r)[c];
+			if (constant && !value.equals(first)) {
+				constant = false;
+			}
+			if (integers) {
+				integers = is_long(value);
+				if (integers) {
+					longs[r] = Long.parseLong(value);
+				}
+			}
+			if (decimals && !integers) {
+				decimals = is_double(value);
+			}
+		}
+
+		if (constant) {
+			out.writeByte(CONSTANT);
+			SimFile.write_string(out, first);
+		} else if (integers) {
+			long plain = 0;
+			long delta = 0;
+			for (int r = 0; r < rows; r++) {
+				plain += varint_size(longs[r]);
+				delta += varint_size(r == 0 ? longs[r] : longs[r] - longs[r - 1]);
+			}
+			if (delta < plain) {
+				out.writeByte(LONG_DELTA);
+				for (int r = 0; r < rows; r++) {
+					write_varlong(out, r == 0 ? longs[r] : longs[r] - longs[r - 1]);
+				}
+			} else {
+				out.writeByte(LONG);
+				for (int r = 0; r < rows; r++) {
+					write_varlong(out, longs[r]);
+				}
+			}
+		} else if (decimals) {
+			out.writeByte(DOUBLE);
+			for (int r = 0; r < rows; r++) {
+				out.writeDouble(Double.parseDouble(lines.get(r)[c]));
+			}
+		} else {
+			out.writeByte(TEXT);
+			HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+			ArrayList<String> values = new ArrayList<String>();
+			int[] indexes = new int[rows];
+			for (int r = 0; r < rows; r++) {
+				String value = lines.get(r)[c];
+				Integer index = dictionary.get(value);
+				if (index == null) {
+					index = values.size();
+					dictionary.put(value, index);
+					values.add(value);
+				}
+				indexes[r] = index;
+			}
+			write_varint(out, values.size());
+			for (String value : values) {
+				SimFile.write_string(out, value);
+			}
+			for (int r = 0; r < rows; r++) {
+				write_varint(out, indexes[r]);
+			}
+		}
+	}
+
+	/**
+	 * Read the next block, or null at the end of the table
+	 */
+	private static Block read_block(DataInputStream in, ArrayList<String[]> headers) throws IOException {
+		Block block = new Block();
+		try {
+			block.name = read_string(in);
+		} catch (EOFException e) {
+			return null;
+		}
+		int index = read_varint(in);
+		if (index == headers.size()) {
+			headers.add(read_string(in).split(",", -1));
+		} else if (index > headers.size()) {
+			throw new IOException("The table of progressions refers to an unknown header.");
+		}
+		block.header = headers.get(index);
+		block.header_written = in.readBoolean();
+		block.rows = read_varint(in);
+		block.columns = new Column[block.header.length];
+		if (block.rows == 0) {
+			return block;
+		}
+		for (int c = 0; c < block.columns.length; c++) {
+			block.columns[c] = read_column(in, block.rows);
+		}
+		return block;
+	}
+
+	/**
+	 * Read a column (see {@link #write_column(DataOutput, ArrayList, int, long[])})
+	 */
+	private static Column read_column(DataInputStream in, int rows) throws IOException {
+		Column column = new Column();
+		column.encoding = in.readByte();
+		switch (column.encoding) {
+		case CONSTANT:
+			column.texts = new String[] { read_string(in) };
+			break;
+		case LONG:
+		case LONG_DELTA:
+			column.longs = new long[rows];
+			for (int r = 0; r < rows; r++) {
+				column.longs[r] = read_varlong(in);
+				if (column.encoding == LONG_DELTA && r > 0) {
+					column.longs[r] += column.longs[r - 1];
+				}
+			}
+			break;
+		case DOUBLE:
+			column.doubles = new double[rows];
+			for (int r = 0; r < rows; r++) {
+				column.doubles[r] = in.readDouble();
+			}
+			break;
+		case TEXT:
+			column.texts = new String[read_varint(in)];
+			for (int v = 0; v < column.texts.length; v++) {
+				column.texts[v] = read_string(in);
+			}
+			column.indexes = new int[rows];
+			for (int r = 0; r < rows; r++) {
+				column.indexes[r] = read_varint(in);
+			}
+			break;
+		default:
+			throw new IOException("Unknown encoding of a column of progressions (" + column.encoding + ").");
+		}
+		return column;
+	}
+
+	/**
+	 * Key of the configuration of a line: the values of the configuration
+	 * columns separated by commas (NA if the header does not have the column)
+	 */
+	private static String configuration(Block block, int row) {
+		StringBuilder key = new StringBuilder();
+		for (String name : CONFIGURATION) {
+			int c = block.index(name);
+			key.append(c < 0 ? "NA" : block.columns[c].text(row)).append(',');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Columns of a header that are aggregated
+	 */
+	private static String[] aggregated(String[] header) {
+		ArrayList<String> columns = new ArrayList<String>();
+		for (String name : header) {
+			if (!Arrays.asList(CONFIGURATION).contains(name) && !Arrays.asList(IGNORED).contains(name)) {
+				columns.add(name);
+			}
+		}
+		return columns.toArray(new String[columns.size()]);
+	}
+
+	/**
+	 * Write the fields of a line separated by commas
+	 */
+	private static void write_line(Writer out, String[] fields) throws IOException {
+		for (int f = 0; f < fields.length; f++) {
+			if (f > 0) {
+				out.write(',');
+			}
+			out.write(fields[f]);
+		}
+		out.write(NEW_LINE);
+	}
+
+	/**
+	 * Check if a value prints exactly as the long it represents
+	 */
+	private static boolean is_long(String value) {
+		int n = value.length();
+		int start = n > 0 && value.charAt(0) == '-' ? 1 : 0;
+		// at most 18 digits (no overflow), without leading zeros or -0
+		if (n == start || n - start > 18 || value.charAt(start) == '0' && (n > start + 1 || start == 1)) {
+			return false;
+		}
+		for (int i = start; i < n; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if a value prints exactly as the double it represents
+	 */
+	private static boolean is_double(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		char c = value.charAt(0);
+		if ((c < '0' || c > '9') && c != '-' && c != 'N' && c != 'I') {
+			return false;
+		}
+		try {
+			return String.valueOf(Double.parseDouble(value)).equals(value);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Write a non negative integer in 7 bits groups
+	 */
+	private static void write_varint(DataOutput out, int value) throws IOException {
+		write_unsigned(out, value & 0xFFFFFFFFL);
+	}
+
+	private static int read_varint(DataInputStream in) throws IOException {
+		return (int) read_unsigned(in);
+	}
+
+	/**
+	 * Write a long in 7 bits groups, with the sign in the lowest bit (so small
+	 * negative values are also short)
+	 */
+	private static void write_varlong(DataOutput out, long value) throws IOException {
+		write_unsigned(out, (value << 1) ^ (value >> 63));
+	}
+
+	private static long read_varlong(DataInputStream in) throws IOException {
+		long value = read_unsigned(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Number of bytes of a long written by
+	 * {@link #write_varlong(DataOutput, long)}
+	 */
+	private static int varint_size(long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		int size = 1;
+		while ((zigzag >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	private static void write_unsigned(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long read_unsigned(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in the table of progressions.");
+	}
+
+	/**
+	 * Read a string written by SimFile#write_string
+	 */
+	private static String read_string(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * The lines of a progression file between two headers
+	 */
+	private static final class Block {
+		private String name;
+		private String[] header;
+		private boolean header_written;
+		private int rows;
+		private Column[] columns;
+
+		/**
+		 * Column of a name, or -1
+		 */
+		private int index(String column) {
+			for (int c = 0; c < header.length; c++) {
+				if (header[c].equals(column)) {
+					return c;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The values of a column of a block
+	 */
+	private static final class Column {
+		private byte encoding;
+		private long[] longs;
+		private double[] doubles;
+		private String[] texts;
+		private int[] indexes;
+
+		/**
+		 * The value of a line as it was in the progression file
+		 */
+		private String text(int row) {
+			switch (encoding) {
+			case CONSTANT:
+				return texts[0];
+			case LONG:
+			case LONG_DELTA:
+				return Long.toString(longs[row]);
+			case DOUBLE:
+				return String.valueOf(doubles[row]);
+			default:
+				return texts[indexes[row]];
+			}
+		}
+
+		/**
+		 * The value of a line as a number, or NaN if it is not a number
+		 */
+		private double value(int row) {
+			switch (encoding) {
+			case LONG:
+			case LONG_DELTA:
+				return longs[row];
+			case DOUBLE:
+				return doubles[row];
+			default:
+				String text = text(row);
+				return is_double(text) || is_long(text) ? Double.parseDouble(text) : Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Running statistics of the columns of a configuration (Welford)
+	 */
+	private static final class Aggregate {
+		private int simulations = 0;
+		private final int[] counts;
+		private final double[] means;
+		private final double[] squares;
+		private final double[] mins;
+		private final double[] maxs;
+
+		private Aggregate(int columns) {
+			counts = new int[columns];
+			means = new double[columns];
+			squares = new double[columns];
+			mins = new double[columns];
+			maxs = new double[columns];
+			Arrays.fill(mins, Double.POSITIVE_INFINITY);
+			Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+		}
+
+		/**
+		 * Add the last line of a progression
+		 */
+		private void add(Block block, String[] columns) {
+			simulations++;
+			int row = block.rows - 1;
+			for (int a = 0; a < columns.length; a++) {
+				int c = block.index(columns[a]);
+				if (c < 0) {
+					continue;
+				}
+				double value = block.columns[c].value(row);
+				if (Double.isNaN(value)) {
+					continue;
+				}
+				counts[a]++;
+				double delta = value - means[a];
+				means[a] += delta / counts[a];
+				squares[a] += delta * (value - means[a]);
+				mins[a] = Math.min(mins[a], value);
+				maxs[a] = Math.max(maxs[a], value);
+			}
+		}
+
+		/**
+		 * Write the number of simulations and the statistics of each column
+		 */
+		private void write(Writer out) throws IOException {
+			out.write(Integer.toString(simulations));
+			for (int a = 0; a < counts.length; a++) {
+				if (counts[a] == 0) {
+					out.write(",NA,NA,NA,NA");
+				} else {
+					out.write(',' + String.valueOf(means[a]) + ','
+							+ (counts[a] < 2 ? "NA" : String.valueOf(Math.sqrt(squares[a] / (counts[a] - 1))))
+							+ ',' + String.valueOf(mins[a]) + ',' + String.valueOf(maxs[a]));
+				}
+			}
+		}
+	}
+}
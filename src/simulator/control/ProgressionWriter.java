@@ -0,0 +1,381 @@
+package simulator.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the progressions of all the simulations of a batch in a single file
+ * (see {@link #FILE_NAME}), instead of one file per simulation, so many short
+ * simulations do not open thousands of files and write them in tiny pieces.
+ *
+ * The simulations publish their lines in a lock-free ring buffer (multiple
+ * producers, a single consumer): a producer claims the next slot with a
+ * compare and set, copies the line in the buffer of the slot (the buffers are
+ * reused, so publishing does not allocate) and marks the slot as ready. One
+ * writer thread drains the slots into blocks of {@link #BLOCK_SIZE} bytes that
+ * are written with a single call; a block that is written before it is full
+ * (when the simulations are quiet, or at the end) is padded to a multiple of
+ * {@link #ALIGNMENT} bytes, so all the writes are aligned.
+ *
+ * The file is a sequence of records: the stream (one per progression file),
+ * the kind of the record, the length and the bytes. The first record of a
+ * stream gives the name of its progression file, the next ones are its lines
+ * in order. {@link #export(File)} reproduces the progression files of the
+ * simulations from it.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class ProgressionWriter {
+
+	/**
+	 * Name of the file, in the progressions directory
+	 */
+	public static final String FILE_NAME = "progressions.store";
+	/**
+	 * Size of the blocks that are written, and alignment of the partial
+	 * blocks
+	 */
+	public static final int BLOCK_SIZE = 1 << 20;
+	public static final int ALIGNMENT = 4096;
+
+	/**
+	 * Kinds of records
+	 */
+	private static final byte PADDING = 0;
+	private static final byte NAME = 1;
+	private static final byte LINE = 2;
+	/**
+	 * Bytes of the stream, kind and length of a record
+	 */
+	private static final int RECORD_HEADER = 4 + 1 + 4;
+
+	/**
+	 * Number of slots of the ring (a power of two)
+	 */
+	private static final int SLOTS = 1 << 12;
+	private static final int MASK = SLOTS - 1;
+	/**
+	 * A block that is not full is written after this time without lines
+	 */
+	private static final long IDLE_NANOS = 1000000000L;
+
+	/**
+	 * Slots of the ring: the sequence of each slot tells if it is free for
+	 * the producer of the claimed position, or ready for the consumer
+	 */
+	private final AtomicLongArray sequences = new AtomicLongArray(SLOTS);
+	private final byte[][] data = new byte[SLOTS][];
+	private final int[] lengths = new int[SLOTS];
+	private final int[] streams = new int[SLOTS];
+	private final byte[] kinds = new byte[SLOTS];
+	/**
+	 * Next position claimed by the producers, and next position read by the
+	 * consumer (only the writer thread uses it)
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	private long head = 0;
+
+	/**
+	 * Streams that were opened
+	 */
+	private final AtomicInteger streamsN = new AtomicInteger();
+	/**
+	 * Destination of the records, and the block that is being filled
+	 */
+	private final FileChannel channel;
+	private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+	private final Thread writer;
+	private volatile boolean closing = false;
+	private volatile IOException failure = null;
+
+	/**
+	 * Creates the writer and starts its thread
+	 *
+	 * @param file
+	 *            the file of the progressions (it is replaced)
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public ProgressionWriter(File file) throws IOException {
+		channel = new FileOutputStream(file).getChannel();
+		for (int s = 0; s < SLOTS; s++) {
+			sequences.set(s, s);
+			data[s] = new byte[512];
+		}
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Progression writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Open the stream of a progression file
+	 *
+	 * @param name
+	 *            the name of the progression file
+	 * @return the stream
+	 */
+	public int open(String name) {
+		int stream = streamsN.getAndIncrement();
+		byte[] bytes = name.getBytes();
+		publish(stream, NAME, bytes, 0, bytes.length);
+		return stream;
+	}
+
+	/**
+	 * Publish a line of a stream. It only waits if the ring is full
+	 *
+	 * @param stream
+	 *            the stream
+	 * @param line
+	 *            the bytes of the line (including the line separator)
+	 * @param offset
+	 *            the first byte of the line
+	 * @param length
+	 *            the number of bytes of the line
+	 */
+	public void write(int stream, byte[] line, int offset, int length) {
+		publish(stream, LINE, line, offset, length);
+	}
+
+	/**
+	 * Write the pending lines and close the file. The simulations cannot
+	 * publish lines anymore.
+	 *
+	 * @throws IOException
+	 *             if the lines could not be written
+	 */
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Claim a slot, copy the record and mark the slot as ready
+	 */
+	private void publish(int stream, byte kind, byte[] bytes, int offset, int length) {
+		long position;
+		while (true) {
+			position = tail.get();
+			long sequence = sequences.get((int) position & MASK);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if (sequence < position) {
+				// the ring is full, wait for the writer
+				if (failure != null || closing && !writer.isAlive()) {
+					return;
+				}
+				LockSupport.parkNanos(10000);
+			}
+		}
+		int slot = (int) position & MASK;
+		if (data[slot].length < length) {
+			data[slot] = new byte[Math.max(length, 2 * data[slot].length)];
+		}
+		System.arraycopy(bytes, offset, data[slot], 0, length);
+		lengths[slot] = length;
+		streams[slot] = stream;
+		kinds[slot] = kind;
+		sequences.set(slot, position + 1);
+	}
+
+	/**
+	 * Loop of the writer thread: move the ready slots to the block until the
+	 * writer is closed and all the slots were written
+	 */
+	private void drain() {
+		long idle = System.nanoTime();
+		try {
+			while (true) {
+				int slot = (int) head & MASK;
+				if (sequences.get(slot) == head + 1) {
+					append(streams[slot], kinds[slot], data[slot], lengths[slot]);
+					sequences.set(slot, head + SLOTS);
+					head++;
+					idle = System.nanoTime();
+				} else if (closing && head == tail.get()) {
+					break;
+				} else {
+					if (block.position() > 0 && System.nanoTime() - idle > IDLE_NANOS) {
+						write_block();
+						idle = System.nanoTime();
+					}
+					LockSupport.parkNanos(100000);
+				}
+			}
+			write_block();
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add a record to the block, writing the block first if it is full (there
+	 * is always room left for the padding record)
+	 */
+	private void append(int stream, byte kind, byte[] bytes, int length) throws IOException {
+		if (block.remaining() < 2 * RECORD_HEADER + length) {
+			write_block();
+		}
+		if (block.remaining() < 2 * RECORD_HEADER + length) {
+			// a record bigger than a block is written on its own
+			ByteBuffer big = ByteBuffer.allocate(RECORD_HEADER + length);
+			big.putInt(stream).put(kind).putInt(length).put(bytes, 0, length).flip();
+			while (big.hasRemaining()) {
+				channel.write(big);
+			}
+			return;
+		}
+		block.putInt(stream).put(kind).putInt(length).put(bytes, 0, length);
+	}
+
+	/**
+	 * Write the block, padded to the alignment
+	 */
+	private void write_block() throws IOException {
+		if (block.position() == 0) {
+			return;
+		}
+		int end = (block.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		int padding = end - block.position();
+		if (padding > 0 && padding < RECORD_HEADER) {
+			// there is no room for the padding record
+			end += ALIGNMENT;
+			padding += ALIGNMENT;
+		}
+		if (padding > 0) {
+			block.putInt(-1).put(PADDING).putInt(padding - RECORD_HEADER);
+			while (block.position() < end) {
+				block.put((byte) 0);
+			}
+		}
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+	}
+
+	/**
+	 * Reproduce the progression files of the simulations (one CSV file per
+	 * simulation) from a file of progressions, in the same directory. The
+	 * existing progression files with the same names are replaced.
+	 *
+	 * @param file
+	 *            the file of progressions
+	 * @return the number of progression files
+	 * @throws IOException
+	 *             if the files cannot be read or written
+	 */
+	public static int export(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		HashMap<Integer, String> names = new HashMap<Integer, String>();
+		HashSet<String> created = new HashSet<String>();
+		// only some files are open at the same time
+		LinkedHashMap<String, OutputStream> open = new LinkedHashMap<String, OutputStream>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, OutputStream> eldest) {
+				if (size() > 256) {
+					try {
+						eldest.getValue().close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BLOCK_SIZE));
+		try {
+			byte[] bytes = new byte[1024];
+			while (true) {
+				int stream;
+				try {
+					stream = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte kind = in.readByte();
+				int length = in.readInt();
+				if (kind == PADDING) {
+					in.skipBytes(length);
+					continue;
+				}
+				if (bytes.length < length) {
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				}
+				in.readFully(bytes, 0, length);
+				if (kind == NAME) {
+					names.put(stream, new String(bytes, 0, length));
+				} else if (kind == LINE) {
+					String name = names.get(stream);
+					if (name == null) {
+						throw new IOException("A line of " + file + " does not belong to any progression.");
+					}
+					OutputStream out = open.get(name);
+					if (out == null) {
+						// the first time the file is replaced, then the
+						// lines are appended
+						out = new BufferedOutputStream(new FileOutputStream(new File(directory, name),
+								!created.add(name)), 1 << 16);
+						open.put(name, out);
+					}
+					out.write(bytes, 0, length);
+				} else {
+					throw new IOException(file + " is not a file of progressions.");
+				}
+			}
+		} finally {
+			in.close();
+			for (Iterator<OutputStream> it = open.values().iterator(); it.hasNext();) {
+				it.next().close();
+			}
+		}
+		return created.size();
+	}
+}
@@ -0,0 +1,684 @@
+package simulator.control;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import simulator.control.events.Event;
+
+/**
+ * Versioned binary format of the simulation files (.simfile). A file starts
+ * with a header that is never compressed:
+ *
+ * - magic number (CSMF), version of the format, codec of the body, length of
+ * the body and length of the stored (maybe compressed) body.
+ *
+ * The body contains the class of the simulation, the table of parameters (the
+ * public parameters of the simulation with their names and types, so the
+ * parameters that do not exist anymore are ignored and the new ones keep their
+ * defaults), and length-prefixed sections: the state of the world (counters,
+ * seed and generator, bit-packed trait planes, institution tables and
+ * statistics of the cultures, see Simulation), the state of the model (see
+ * Simulation#write_model), the same two sections for the starting state, and
+ * the pending events.
+ *
+ * Version 2 stores the exact state of the generator (see Generator#write);
+ * version 1 stored a seed the generator was restarted with, and it is still
+ * read.
+ *
+ * The files are read through a memory mapping, so the body of an
+ * uncompressed file (codec NONE) is decoded directly from the mapped pages.
+ * The codec of the new files is selected with {@link #CODEC}.
+ *
+ * The files written before this format (gzip'd Java serialization) are still
+ * read, and {@link #convert(File)} rewrites them in this format.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public final class SimFile {
+
+	/**
+	 * Codecs of the body
+	 */
+	public static final String NONE = "NONE";
+	public static final String DEFLATE = "DEFLATE";
+	/**
+	 * Codec of the files that are written
+	 */
+	public static String CODEC = DEFLATE;
+
+	private static final int MAGIC = 0x43534D46;
+	private static final short VERSION = 2;
+	private static final byte CODEC_NONE = 0;
+	private static final byte CODEC_DEFLATE = 1;
+	private static final int HEADER_SIZE = 4 + 2 + 1 + 4 + 4;
+	/**
+	 * First bytes of the gzip'd files of the previous format
+	 */
+	private static final int GZIP_MAGIC = 0x1F8B;
+
+	/**
+	 * Types of the parameters of the table
+	 */
+	private static final byte INT = 'I';
+	private static final byte LONG = 'J';
+	private static final byte FLOAT = 'F';
+	private static final byte DOUBLE = 'D';
+	private static final byte BOOLEAN = 'Z';
+	private static final byte STRING = 'S';
+
+	private SimFile() {
+	}
+
+	/**
+	 * Check the name of a codec
+	 *
+	 * @param codec
+	 *            the name of the codec (NONE or DEFLATE)
+	 * @return the name of the codec in upper case
+	 * @throws IllegalArgumentException
+	 *             if the codec does not exist
+	 */
+	public static String codec(String codec) {
+		String c = codec.trim().toUpperCase();
+		if (!c.equals(NONE) && !c.equals(DEFLATE)) {
+			throw new IllegalArgumentException("Unknown codec of the simulation files: " + codec);
+		}
+		return c;
+	}
+
+	/**
+	 * Write a simulation in a file
+	 *
+	 * @param simulation
+	 *            the simulation
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void save(Simulation simulation, File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream body = new DataOutputStream(bytes);
+		write_string(body, simulation.getClass().getName());
+		write_parameters(body, simulation);
+		write_world(body, simulation);
+		write_world(body, simulation.starter);
+
+		ByteArrayOutputStream events = new ByteArrayOutputStream();
+		if (simulation.events != null && !simulation.events.isEmpty()) {
+			ObjectOutputStream oos = new ObjectOutputStream(events);
+			oos.writeObject(new ArrayList<Event>(simulation.events));
+			oos.close();
+		}
+		write_section(body, events);
+		body.flush();
+
+		byte codec = CODEC.equals(NONE) ? CODEC_NONE : CODEC_DEFLATE;
+		ByteArrayOutputStream stored = bytes;
+		if (codec == CODEC_DEFLATE) {
+			stored = new ByteArrayOutputStream(bytes.size() / 4 + 64);
+			DeflaterOutputStream dos = new DeflaterOutputStream(stored, new Deflater(Deflater.BEST_SPEED));
+			bytes.writeTo(dos);
+			dos.close();
+		}
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte(codec);
+			out.writeInt(bytes.size());
+			out.writeInt(stored.size());
+			stored.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a simulation from a file, in this format or in the previous one
+	 *
+	 * @param file
+	 *            the file
+	 * @return the simulation
+	 * @throws IOException
+	 *             if the file cannot be read, or it is not a simulation file
+	 * @throws ClassNotFoundException
+	 *             if the class of the simulation does not exist
+	 */
+	public static Simulation load(File file) throws IOException, ClassNotFoundException {
+		if (is_legacy(file)) {
+			return load_legacy(file);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(mapped, file);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Rewrite a file of the previous format (gzip'd Java serialization) in
+	 * this format. The original file is kept with the extension .old
+	 *
+	 * @param file
+	 *            the file
+	 * @return true if the file was converted, false if it already was in
+	 *         this format
+	 * @throws IOException
+	 *             if the file cannot be read or written
+	 * @throws ClassNotFoundException
+	 *             if the class of the simulation does not exist
+	 */
+	public static boolean convert(File file) throws IOException, ClassNotFoundException {
+		if (!is_legacy(file)) {
+			return false;
+		}
+		Simulation simulation = load_legacy(file);
+		File old = new File(file.getPath() + ".old");
+		if (old.exists() || !file.renameTo(old)) {
+			throw new IOException("The original file could not be kept as " + old);
+		}
+		save(simulation, file);
+		return true;
+	}
+
+	/**
+	 * Write an array of integers
+	 *
+	 * @param out
+	 *            the output
+	 * @param values
+	 *            the array
+	 * @throws IOException
+	 *             if the array cannot be written
+	 */
+	public static void write_ints(DataOutput out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int i = 0; i < values.length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * Read an array of integers
+	 *
+	 * @param in
+	 *            the input
+	 * @return the array
+	 */
+	public static int[] read_ints(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	/**
+	 * Write a table of integers (all the rows have the same length)
+	 *
+	 * @param out
+	 *            the output
+	 * @param table
+	 *            the table
+	 * @throws IOException
+	 *             if the table cannot be written
+	 */
+	public static void write_table(DataOutput out, int[][] table) throws IOException {
+		out.writeInt(table.length);
+		out.writeInt(table.length == 0 ? 0 : table[0].length);
+		for (int r = 0; r < table.length; r++) {
+			for (int c = 0; c < table[r].length; c++) {
+				out.writeInt(table[r][c]);
+			}
+		}
+	}
+
+	/**
+	 * Read a table of integers
+	 *
+	 * @param in
+	 *            the input
+	 * @return the table
+	 */
+	public static int[][] read_table(ByteBuffer in) {
+		int[][] table = new int[in.getInt()][in.getInt()];
+		for (int r = 0; r < table.length; r++) {
+			in.asIntBuffer().get(table[r]);
+			in.position(in.position() + 4 * table[r].length);
+		}
+		return table;
+	}
+
+	/**
+	 * Write a table of flags (all the rows have the same length)
+	 *
+	 * @param out
+	 *            the output
+	 * @param table
+	 *            the table
+	 * @throws IOException
+	 *             if the table cannot be written
+	 */
+	public static void write_flags(DataOutput out, boolean[][] table) throws IOException {
+		out.writeInt(table.length);
+		out.writeInt(table.length == 0 ? 0 : table[0].length);
+		for (int r = 0; r < table.length; r++) {
+			for (int c = 0; c < table[r].length; c++) {
+				out.writeBoolean(table[r][c]);
+			}
+		}
+	}
+
+	/**
+	 * Read a table of flags
+	 *
+	 * @param in
+	 *            the input
+	 * @return the table
+	 */
+	public static boolean[][] read_flags(ByteBuffer in) {
+		boolean[][] table = new boolean[in.getInt()][in.getInt()];
+		for (int r = 0; r < table.length; r++) {
+			for (int c = 0; c < table[r].length; c++) {
+				table[r][c] = in.get() != 0;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Write a string (or null) in UTF-8
+	 *
+	 * @param out
+	 *            the output
+	 * @param s
+	 *            the string
+	 * @throws IOException
+	 *             if the string cannot be written
+	 */
+	public static void write_string(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string (or null) in UTF-8
+	 *
+	 * @param in
+	 *            the input
+	 * @return the string
+	 * @throws IOException
+	 *             if the string is not valid
+	 */
+	public static String read_string(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Check if a file is in the previous format
+	 */
+	private static boolean is_legacy(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			int b1 = fis.read();
+			int b2 = fis.read();
+			return ((b1 << 8) | b2) == GZIP_MAGIC;
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Read a file of the previous format (gzip'd Java serialization)
+	 */
+	private static Simulation load_legacy(File file) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new LegacyInputStream(new GZIPInputStream(new FileInputStream(file)));
+		try {
+			return (Simulation) ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+
+	/**
+	 * Convert the culture statistics of a simulation of the previous format
+	 * (see Simulation#readObject)
+	 *
+	 * @param cultures
+	 *            the list of statistics of the cultures
+	 * @param features
+	 *            the features of the simulation
+	 * @return the pool with the same cultures
+	 */
+	static CulturePool legacy_cultures(List<?> cultures, int features) {
+		CulturePool pool = new CulturePool();
+		pool.clear(features);
+		for (Object o : cultures) {
+			LegacyCultureStatistics c = (LegacyCultureStatistics) o;
+			pool.add(c.size, c.x, c.y, c.traits);
+		}
+		return pool;
+	}
+
+	/**
+	 * Stream of the files of the previous format: the classes that do not
+	 * exist anymore are read as their legacy counterparts
+	 */
+	private static final class LegacyInputStream extends ObjectInputStream {
+
+		private LegacyInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			ObjectStreamClass descriptor = super.readClassDescriptor();
+			if (descriptor.getName().equals("simulator.control.CultureStatistics")) {
+				return ObjectStreamClass.lookup(LegacyCultureStatistics.class);
+			}
+			return descriptor;
+		}
+	}
+
+	/**
+	 * The statistics of a culture in the previous format (replaced by
+	 * CulturePool), with the same fields
+	 */
+	private static final class LegacyCultureStatistics implements Serializable {
+		private static final long serialVersionUID = -7499666293108729939L;
+
+		private double x;
+		private double y;
+		private int size;
+		private int[] traits;
+		@SuppressWarnings("unused")
+		private Simulation sim;
+	}
+
+	/**
+	 * Decode the header and the body of a file
+	 */
+	@SuppressWarnings("unchecked")
+	private static Simulation read(ByteBuffer file, File name) throws IOException, ClassNotFoundException {
+		if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC) {
+			throw new IOException(name + " is not a simulation file.");
+		}
+		short version = file.getShort();
+		if (version > VERSION) {
+			throw new IOException(name + " was written with a newer version (" + version + ") of the format.");
+		}
+		byte codec = file.get();
+		int length = file.getInt();
+		int stored = file.getInt();
+		if (file.remaining() < stored) {
+			throw new IOException(name + " is truncated.");
+		}
+
+		ByteBuffer body;
+		if (codec == CODEC_NONE) {
+			body = file.slice();
+			body.limit(length);
+		} else if (codec == CODEC_DEFLATE) {
+			byte[] compressed = new byte[stored];
+			file.get(compressed);
+			byte[] bytes = new byte[length];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compressed);
+				int n = 0;
+				while (n < length && !inflater.finished()) {
+					n += inflater.inflate(bytes, n, length - n);
+					if (inflater.needsInput()) {
+						break;
+					}
+				}
+				if (n != length) {
+					throw new IOException(name + " is corrupted.");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(name + " is corrupted.", e);
+			} finally {
+				inflater.end();
+			}
+			body = ByteBuffer.wrap(bytes);
+		} else {
+			throw new IOException(name + " uses an unknown codec (" + codec + ").");
+		}
+
+		Simulation simulation;
+		try {
+			simulation = (Simulation) Class.forName(read_string(body)).getDeclaredConstructor().newInstance();
+		} catch (InstantiationException | IllegalAccessException | NoSuchMethodException
+				| InvocationTargetException e) {
+			throw new IOException("The simulation of " + name + " cannot be created.", e);
+		}
+		read_parameters(body, simulation);
+		read_world(body, simulation, version);
+
+		Simulation starter = simulation.clone();
+		if (read_world(body, starter, version)) {
+			simulation.starter = starter;
+		}
+
+		ByteBuffer events = section(body);
+		if (events.hasRemaining()) {
+			byte[] bytes = new byte[events.remaining()];
+			events.get(bytes);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			simulation.events = (ArrayList<Event>) ois.readObject();
+			ois.close();
+		}
+		return simulation;
+	}
+
+	/**
+	 * Write the state of the world and the model of a simulation (or null),
+	 * in two sections
+	 */
+	private static void write_world(DataOutput out, Simulation simulation) throws IOException {
+		ByteArrayOutputStream world = new ByteArrayOutputStream();
+		ByteArrayOutputStream model = new ByteArrayOutputStream();
+		if (simulation != null && simulation.traits != null) {
+			DataOutputStream dos = new DataOutputStream(world);
+			simulation.write_state(dos);
+			dos.flush();
+			dos = new DataOutputStream(model);
+			simulation.write_model(dos);
+			dos.flush();
+		}
+		write_section(out, world);
+		write_section(out, model);
+	}
+
+	/**
+	 * Read the state of the world and the model of a simulation
+	 *
+	 * @return false if the simulation did not have a world
+	 */
+	private static boolean read_world(ByteBuffer in, Simulation simulation, short version) throws IOException {
+		ByteBuffer world = section(in);
+		ByteBuffer model = section(in);
+		if (!world.hasRemaining()) {
+			return false;
+		}
+		simulation.read_state(world, version);
+		simulation.read_model(model);
+		return true;
+	}
+
+	/**
+	 * Write a section with its length
+	 */
+	private static void write_section(DataOutput out, ByteArrayOutputStream section) throws IOException {
+		out.writeInt(section.size());
+		out.write(section.toByteArray());
+	}
+
+	/**
+	 * The next section of the body, the body continues after it
+	 */
+	private static ByteBuffer section(ByteBuffer in) {
+		int length = in.getInt();
+		ByteBuffer section = in.slice();
+		section.limit(length);
+		in.position(in.position() + length);
+		return section;
+	}
+
+	/**
+	 * Write the table of the public parameters of a simulation
+	 */
+	private static void write_parameters(DataOutput out, Simulation simulation) throws IOException {
+		ArrayList<Field> fields = new ArrayList<Field>();
+		for (Field field : simulation.getClass().getFields()) {
+			if (is_parameter(field)) {
+				fields.add(field);
+			}
+		}
+		out.writeInt(fields.size());
+		try {
+			for (Field field : fields) {
+				write_string(out, field.getName());
+				Class<?> type = field.getType();
+				if (type == int.class) {
+					out.writeByte(INT);
+					out.writeInt(field.getInt(simulation));
+				} else if (type == long.class) {
+					out.writeByte(LONG);
+					out.writeLong(field.getLong(simulation));
+				} else if (type == float.class) {
+					out.writeByte(FLOAT);
+					out.writeFloat(field.getFloat(simulation));
+				} else if (type == double.class) {
+					out.writeByte(DOUBLE);
+					out.writeDouble(field.getDouble(simulation));
+				} else if (type == boolean.class) {
+					out.writeByte(BOOLEAN);
+					out.writeBoolean(field.getBoolean(simulation));
+				} else {
+					out.writeByte(STRING);
+					write_string(out, (String) field.get(simulation));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IOException("The parameters cannot be read.", e);
+		}
+	}
+
+	/**
+	 * Read the table of parameters into a simulation. The parameters that do
+	 * not exist anymore (or changed their type) are ignored
+	 */
+	private static void read_parameters(ByteBuffer in, Simulation simulation) throws IOException {
+		int n = in.getInt();
+		try {
+			for (int i = 0; i < n; i++) {
+				String name = read_string(in);
+				byte type = in.get();
+				Field field = null;
+				try {
+					field = simulation.getClass().getField(name);
+				} catch (NoSuchFieldException e) {
+					// a parameter of a previous version
+				}
+				if (field != null && !is_parameter(field)) {
+					field = null;
+				}
+				if (type == INT) {
+					int v = in.getInt();
+					if (field != null && field.getType() == int.class) {
+						field.setInt(simulation, v);
+					}
+				} else if (type == LONG) {
+					long v = in.getLong();
+					if (field != null && field.getType() == long.class) {
+						field.setLong(simulation, v);
+					}
+				} else if (type == FLOAT) {
+					float v = in.getFloat();
+					if (field != null && field.getType() == float.class) {
+						field.setFloat(simulation, v);
+					}
+				} else if (type == DOUBLE) {
+					double v = in.getDouble();
+					if (field != null && field.getType() == double.class) {
+						field.setDouble(simulation, v);
+					}
+				} else if (type == BOOLEAN) {
+					boolean v = in.get() != 0;
+					if (field != null && field.getType() == boolean.class) {
+						field.setBoolean(simulation, v);
+					}
+				} else if (type == STRING) {
+					String v = read_string(in);
+					if (field != null && field.getType() == String.class) {
+						field.set(simulation, v);
+					}
+				} else {
+					throw new IOException("Unknown type of the parameter " + name + ".");
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IOException("The parameters cannot be written.", e);
+		}
+	}
+
+	/**
+	 * The parameters are the public fields of the simulations whose names are
+	 * in upper case and that have a primitive or a String type
+	 */
+	private static boolean is_parameter(Field field) {
+		int modifiers = field.getModifiers();
+		if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+			return false;
+		}
+		String name = field.getName();
+		if (!name.equals(name.toUpperCase())) {
+			return false;
+		}
+		Class<?> type = field.getType();
+		return type == int.class || type == long.class || type == float.class || type == double.class
+				|| type == boolean.class || type == String.class;
+	}
+}
@@ -5,22 +5,29 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
-import java.util.zip.GZIPOutputStream;
 
 import simulator.CulturalSimulator;
 import simulator.control.events.Event;
@@ -118,18 +125,11 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 */
 	protected int NEIGHBOURS = RADIUS * RADIUS + (RADIUS + 1) * (RADIUS + 1) - 1;
 	/**
-	 * Define X coordinates of the neighbors
+	 * Neighbors of each agent. The total number of neighbors is different per
+	 * agent because of the non-toroidal configuration. The index is shared by
+	 * all the simulations with the same dimensions, so it is not serialized.
 	 */
-	protected int[][][] neighboursX = null;
-	/**
-	 * Define Y coordinates of the neighbors
-	 */
-	protected int[][][] neighboursY = null;
-	/**
-	 * Define the total number of neighbors. It is different per agent because
-	 * of the non-toroidal configuration.
-	 */
-	protected int[][] neighboursN = null;
+	protected transient Neighbourhood neighbourhood = null;
 	/**
 	 * Define the MUTATION error. This is when the agent changes one trait
 	 * randomly
@@ -140,11 +140,91 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * decision to interact or not with an specific agent
 	 */
 	public float SELECTION_ERROR = 0.001f;
+	/**
+	 * Pack the cultural vector of each agent in a long when FEATURES <= 16
+	 * and TRAITS <= 14, so agents are compared with bitwise operations
+	 */
+	public boolean PACKED_TRAITS = true;
+	/**
+	 * Sample the gaps between mutations and selection errors from a geometric
+	 * distribution instead of drawing a random number per trial
+	 */
+	public boolean SKIP_SAMPLING = false;
+	/**
+	 * Trials of mutation and selection error when SKIP_SAMPLING is active
+	 */
+	protected GeometricSkip mutation_skip = null;
+	protected GeometricSkip selection_skip = null;
+	/**
+	 * Jump directly between the agent updates that change a trait
+	 * (rejection-free algorithm), only available in M1
+	 */
+	public boolean REJECTION_FREE = false;
+	/**
+	 * Keep the votes of the neighbors of each agent up to date instead of
+	 * counting them in each update, only available in M2
+	 */
+	public boolean INCREMENTAL_VOTES = false;
+	/**
+	 * Use the global histogram of traits as votes when the neighborhoods
+	 * cover (almost) the whole grid, only available in M2. The run is
+	 * different from the standard one with the same seed (the agents are
+	 * visited in another order and the votes of the foreign traits are
+	 * counted exactly), so it is disabled by default.
+	 */
+	public boolean MEAN_FIELD = false;
+	/**
+	 * Indicates if the model obtains the votes from the global histogram of
+	 * traits (see MEAN_FIELD), as reported in the results
+	 */
+	protected boolean mean_field = false;
+	/**
+	 * Update the strips of the grid in parallel (see M1), only available in
+	 * M1. It also labels the cultures of big grids in parallel (see
+	 * CultureLabels) in all the models.
+	 */
+	public boolean PARALLEL = false;
+	/**
+	 * Rule to stop the simulation before ITERATIONS when the world stopped
+	 * changing: STOP_NONE, STOP_ABSORBING (no change is possible anymore),
+	 * STOP_QUIET (no trait changed during STOP_CHECKPOINTS checkpoints) or
+	 * STOP_STABLE (the statistics did not change during STOP_CHECKPOINTS
+	 * checkpoints)
+	 */
+	public String STOP_RULE = STOP_NONE;
+	/**
+	 * Consecutive checkpoints for the STOP_QUIET and STOP_STABLE rules
+	 */
+	public int STOP_CHECKPOINTS = 10;
+	/**
+	 * Metrics that are calculated at each checkpoint (see {@link Metrics}):
+	 * their names separated by semicolons, or ALL. The columns of the other
+	 * metrics are written as NA.
+	 */
+	public String METRICS = Metrics.ALL;
+	/**
+	 * Calculate the statistics of the checkpoints in a separate thread, on a
+	 * snapshot of the world, while the simulation continues (see
+	 * CheckpointWorker). Only in batch mode and without the STOP_STABLE rule,
+	 * which needs the statistics before continuing.
+	 */
+	public boolean ASYNC_STATISTICS = false;
+	/**
+	 * Schedule of the checkpoints that calculate and write the statistics
+	 * (see CheckpointSchedule): FIXED (every SPEED iterations),
+	 * FIXED:interval, LOG:n (n per decade of iterations) or AT:t1;t2;...
+	 */
+	public String CHECKPOINTS = CheckpointSchedule.FIXED;
+	public static final String STOP_NONE = "NONE";
+	public static final String STOP_ABSORBING = "ABSORBING";
+	public static final String STOP_QUIET = "QUIET";
+	public static final String STOP_STABLE = "STABLE";
 
 	/**
-	 * Individual cultural(trait) space
+	 * Individual cultural(trait) space, indexed by agent (row * COLS + column)
+	 * and feature
 	 */
-	protected int[][][] traits = null;
+	protected TraitStore traits = null;
 	/**
 	 * Institutional cultural(trait) space
 	 */
@@ -161,10 +241,14 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * Save and calculate results each speed iterations
 	 */
 	public int SPEED = 100;
+	/**
+	 * Backend of the random number generator (see {@link Generator})
+	 */
+	public String GENERATOR = Generator.JDK;
 	/**
 	 * Random number generator
 	 */
-	protected Random rand = null;
+	protected Generator rand = null;
 	/**
 	 * Stores the seed that produced this simulation
 	 */
@@ -183,29 +267,23 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 */
 	protected int generation = 0;
 	/**
-	 * Flag for recursion
-	 */
-	private boolean flag_mark = true;
-	/**
-	 * Controls recursion
-	 */
-	private boolean[][] flags;
-	/**
-	 * Internal recursion matrix to indicate culture
+	 * Internal matrix to indicate culture
 	 */
 	private int[][] cultures;
 	/**
-	 * Size of the current culture
+	 * Labelling of the cultures (see {@link #calculate_stats()})
 	 */
-	private int culture_size = 0;
+	private transient CultureLabels culture_labels = null;
 	/**
-	 * Average row of the present culture in the recursion
+	 * Grids with at least this number of agents label their cultures in
+	 * parallel when PARALLEL is active
 	 */
-	private double ave_row = -1;
+	private static final int PARALLEL_LABELS_AGENTS = 1 << 20;
 	/**
-	 * Average row of the present culture in the recursion
+	 * The cultures are matched in parallel (when PARALLEL is active) if there
+	 * are at least this number of pairs of cultures
 	 */
-	private double ave_col = -1;
+	private static final long PARALLEL_MATCHES = 1 << 20;
 	/**
 	 * Number of members of the biggest culture
 	 */
@@ -242,6 +320,82 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * Energy of the System
 	 */
 	protected int energy = 0;
+	/**
+	 * Number of traits that changed since the previous checkpoint
+	 */
+	protected int trait_changes = 0;
+	/**
+	 * Version of the traits in the previous checkpoint
+	 */
+	private int traits_version = 0;
+	private transient TraitStore versioned_traits = null;
+	/**
+	 * Number of different cultures of the world regardless of their position,
+	 * and size of the biggest of them (see CultureRegistry)
+	 */
+	protected int global_cultures = 0;
+	protected int biggest_global_culture = 0;
+	/**
+	 * Traits (and their version) of the last labelling of the cultures and of
+	 * the Neumann cultures, the labellings are not repeated if they did not
+	 * change
+	 */
+	private transient TraitStore labelled_traits = null;
+	private transient int labelled_version = -1;
+	private transient TraitStore neumann_labelled_traits = null;
+	private transient int neumann_labelled_version = -1;
+	/**
+	 * The responses (see {@link #calculate_responses()}) were already
+	 * calculated in this checkpoint
+	 */
+	private transient boolean responses_done = false;
+	/**
+	 * Selected metrics (see METRICS)
+	 */
+	private transient List<Metric> active_metrics = null;
+	/**
+	 * Worker of the asynchronous statistics (see ASYNC_STATISTICS)
+	 */
+	private transient CheckpointWorker checkpoint_worker = null;
+	/**
+	 * Encoder of the lines of results returned by {@link #get_results()}
+	 */
+	private transient CsvEncoder line = null;
+	/**
+	 * Text of the start time of the experiment, and the time it represents
+	 */
+	private transient String timestamp = null;
+	private transient long timestamp_time = 0;
+	/**
+	 * Formats of the identification of the system
+	 */
+	private transient DecimalFormat df = null;
+	private transient DecimalFormat df2 = null;
+	/**
+	 * Identifiers of the built-in metrics (see {@link Metrics})
+	 */
+	static final int METRIC_ENERGY = 0;
+	static final int METRIC_CULTURES = 1;
+	static final int METRIC_CULTURE_SIMILARITY = 2;
+	static final int METRIC_NEUMANN_CULTURES = 3;
+	static final int METRIC_NEUMANN_SIMILARITY = 4;
+	static final int METRIC_INSTITUTIONS = 5;
+	static final int METRIC_TRAITS = 6;
+	static final int METRIC_GLOBAL_CULTURES = 7;
+	/**
+	 * Consecutive checkpoints that satisfy the stop rule
+	 */
+	private int stop_checkpoints = 0;
+	/**
+	 * Statistics of the previous checkpoint for the STOP_STABLE rule
+	 */
+	private int[] last_statistics = null;
+	/**
+	 * Rule that stopped the simulation before ITERATIONS, and the iteration
+	 * in which it happened
+	 */
+	protected String stop_reason = "NA";
+	protected int stop_iteration = -1;
 	/**
 	 * Spread of the foreigners traits
 	 */
@@ -319,12 +473,12 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	/**
 	 * Average center of the culture, number of people per culture, and traits
 	 */
-	protected List<CultureStatistics> culture_stats;
+	protected CulturePool culture_stats;
 	/**
 	 * Average center of the culture, number of people per culture, and traits
 	 * (calculated as Neumann's)
 	 */
-	protected List<CultureStatistics> neumann_stats;
+	protected CulturePool neumann_stats;
 	/**
 	 * Indicates if the thread should be running. If not, it would stop or
 	 * suspend as soon as it can if not. This is when a checkpoint is finalized.
@@ -387,6 +541,11 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * The results directory
 	 */
 	protected transient String results_dir = null;
+	/**
+	 * Shared writer of the progressions of a batch, or null if the simulation
+	 * writes its own progression file (see ProgressionWriter)
+	 */
+	protected transient ProgressionWriter progressions = null;
 
 	/**
 	 * The constructor just loads the class TYPE. The rest of the things are
@@ -396,15 +555,40 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	public Simulation() {
 		MODEL = this.getClass().getSimpleName().toUpperCase();
 		monitor = new Object();
-		save_state();
 
 	}
 
 	/**
-	 * Performs a deep cloning of the simulation taking advantage of Java
-	 * serialization
+	 * Save the current state of the simulation in the starter, to calculate
+	 * the similarity/change of the world with respect to it.
+	 * 
+	 * In batch mode, the starter is only read, so it is a frozen snapshot:
+	 * the traits, the institutions, the statistics of the cultures and the
+	 * counters are copied into it with array copies, reusing its buffers
+	 * from the previous save. In the interface, the simulation can be
+	 * reloaded from the starter and continued, so it is a deep cloning that
+	 * takes advantage of Java serialization.
 	 */
 	protected void save_state() {
+		if (Controller.IS_BATCH && traits != null) {
+			if (starter == null || starter.getClass() != getClass()) {
+				starter = clone();
+			}
+			copy_state_to(starter);
+			starter.starter = null;
+			if (culture_stats != null) {
+				if (starter.culture_stats == null) {
+					starter.culture_stats = new CulturePool();
+					starter.neumann_stats = new CulturePool();
+				}
+				starter.culture_stats.copy_from(culture_stats);
+				starter.neumann_stats.copy_from(neumann_stats);
+			}
+			if (log != null) {
+				log.print(IDENTIFIER, "Current state has been saved.\n");
+			}
+			return;
+		}
 		try {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			ObjectOutputStream oos = new ObjectOutputStream(baos);
@@ -425,6 +609,124 @@ public abstract class Simulation implements Callable<String>, Serializable {
 		}
 	}
 
+	/**
+	 * Restore the structures that are shared between simulations, and
+	 * therefore not serialized, after the simulation has been read.
+	 * 
+	 * The fields are read one by one, so the simulations written by previous
+	 * versions are also read: the fields that did not exist keep their
+	 * defaults, and the fields whose type changed are converted (the traits
+	 * grid, the java.util.Random and the lists of culture statistics, see
+	 * SimFile).
+	 * 
+	 * @param in
+	 *            the stream the simulation is read from
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		ObjectStreamClass stream = fields.getObjectStreamClass();
+		Object legacy_traits = null;
+		Object legacy_cultures = null;
+		Object legacy_neumann = null;
+		Simulation defaults = null;
+		try {
+			for (Field field : Simulation.class.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+					continue;
+				}
+				String name = field.getName();
+				Class<?> type = field.getType();
+				ObjectStreamField streamed = stream.getField(name);
+				if (streamed == null || streamed.isPrimitive() != type.isPrimitive()
+						|| (type.isPrimitive() && streamed.getType() != type)) {
+					// a field that did not exist when the simulation was written
+					if (defaults == null) {
+						defaults = getClass().getDeclaredConstructor().newInstance();
+					}
+					field.set(this, field.get(defaults));
+				} else if (type == int.class) {
+					field.setInt(this, fields.get(name, 0));
+				} else if (type == long.class) {
+					field.setLong(this, fields.get(name, 0L));
+				} else if (type == float.class) {
+					field.setFloat(this, fields.get(name, 0f));
+				} else if (type == double.class) {
+					field.setDouble(this, fields.get(name, 0d));
+				} else if (type == boolean.class) {
+					field.setBoolean(this, fields.get(name, false));
+				} else if (type == byte.class) {
+					field.setByte(this, fields.get(name, (byte) 0));
+				} else if (type == short.class) {
+					field.setShort(this, fields.get(name, (short) 0));
+				} else if (type == char.class) {
+					field.setChar(this, fields.get(name, (char) 0));
+				} else {
+					Object value = fields.get(name, null);
+					if (value == null || type.isInstance(value)) {
+						field.set(this, value);
+					} else if (name.equals("traits")) {
+						legacy_traits = value;
+					} else if (name.equals("rand") && value instanceof Random) {
+						rand = Generator.wrap((Random) value);
+					} else if (name.equals("culture_stats")) {
+						legacy_cultures = value;
+					} else if (name.equals("neumann_stats")) {
+						legacy_neumann = value;
+					} else {
+						throw new InvalidObjectException("The field " + name + " of the simulation cannot be read.");
+					}
+				}
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("The simulation cannot be read.", e);
+		}
+
+		// simulations saved before the traits were kept in a store
+		if (legacy_traits instanceof int[][][]) {
+			int[][][] grid = (int[][][]) legacy_traits;
+			traits = TraitStore.create(TOTAL_AGENTS, FEATURES, TRAITS, PACKED_TRAITS);
+			for (int r = 0; r < ROWS; r++) {
+				for (int c = 0; c < COLS; c++) {
+					for (int f = 0; f < FEATURES; f++) {
+						traits.put(r * COLS + c, f, grid[r][c][f]);
+					}
+				}
+			}
+		} else if (legacy_traits != null) {
+			throw new InvalidObjectException("The traits of the simulation cannot be read.");
+		}
+		if (legacy_cultures != null) {
+			culture_stats = SimFile.legacy_cultures((List<?>) legacy_cultures, FEATURES);
+		}
+		if (legacy_neumann != null) {
+			neumann_stats = SimFile.legacy_cultures((List<?>) legacy_neumann, FEATURES);
+		}
+
+		// simulations saved before the generator was configurable
+		if (GENERATOR == null) {
+			GENERATOR = Generator.JDK;
+		}
+		if (STOP_RULE == null) {
+			STOP_RULE = STOP_NONE;
+			stop_reason = "NA";
+		}
+		if (METRICS == null) {
+			METRICS = Metrics.ALL;
+		}
+		if (CHECKPOINTS == null) {
+			CHECKPOINTS = CheckpointSchedule.FIXED;
+		}
+		if (traits != null) {
+			neighbourhood = Neighbourhood.get(ROWS, COLS, RADIUS);
+			versioned_traits = traits;
+			mutation_skip = new GeometricSkip();
+			selection_skip = new GeometricSkip();
+		}
+	}
+
 	/**
 	 * Clone an event list
 	 * 
@@ -463,15 +765,19 @@ public abstract class Simulation implements Callable<String>, Serializable {
 		stopped = false;
 		is_finished = false;
 		failed = false;
-		BufferedWriter writer = null;
+		CsvEncoder writer = null;
 
-		try {
-			writer = new BufferedWriter(
-					new OutputStreamWriter(new FileOutputStream(results_dir + Controller.PROGRESSIONS_DIR + IDENTIFIER
-							+ "_" + MODEL + "_" + ROWS + "x" + COLS + ".csv", true), "utf-8"),
-					BUFFERED_SIZE);
-		} catch (UnsupportedEncodingException | FileNotFoundException e) {
-			e.printStackTrace();
+		String progression = IDENTIFIER + "_" + MODEL + "_" + ROWS + "x" + COLS + ".csv";
+		if (progressions != null) {
+			writer = new CsvEncoder(progressions, progression);
+		} else {
+			try {
+				writer = new CsvEncoder(
+						new FileOutputStream(results_dir + Controller.PROGRESSIONS_DIR + progression, true).getChannel(),
+						BUFFERED_SIZE);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			}
 		}
 
 		if (generation == 0) {
@@ -502,12 +808,20 @@ public abstract class Simulation implements Callable<String>, Serializable {
 			}
 
 			try {
-				writer.write(results());
-				writer.newLine();
+				if (progressions != null) {
+					// the header of the progression file (see
+					// simulation_setup)
+					writer.field(header());
+					writer.end_line();
+				}
+				calculate_metrics();
+				count_trait_changes();
+				encode_results(writer);
+				writer.end_line();
 				log.print(IDENTIFIER, "Initial results were written.\n");
 			} catch (IOException e) {
 				e.printStackTrace();
-				log.print(IDENTIFIER, "writer.write(results()); failed.\n");
+				log.print(IDENTIFIER, "encode_results(writer); failed.\n");
 				failed = true;
 			}
 		} else {
@@ -533,10 +847,13 @@ public abstract class Simulation implements Callable<String>, Serializable {
 			log.print(IDENTIFIER, "run_experiment(); failed.\n");
 			failed = true;
 		}
+		if (checkpoint_worker != null) {
+			checkpoint_worker.shutdown();
+			checkpoint_worker = null;
+		}
 		endTime = System.currentTimeMillis();
 
 		try {
-			writer.flush();
 			writer.close();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -564,93 +881,73 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	}
 
 	/**
-	 * Save the simulation object
+	 * Save the simulation object (see SimFile)
 	 */
 	private void save_simulation() {
 
 		try {
 			File f = new File(results_dir + Controller.SIMULATIONS_DIR + IDENTIFIER + ".simfile");
-			FileOutputStream fos = new FileOutputStream(f);
-			GZIPOutputStream gos = new GZIPOutputStream(fos);
-			ObjectOutputStream oos = new ObjectOutputStream(gos);
-			oos.writeObject(this);
-			oos.close();
+			SimFile.save(this, f);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Setups the object in order to run the experiment. Initialize all the
-	 * variables
+	 * Initialize the variables and allocate the structures of the world,
+	 * without assigning the traits of the agents
 	 */
-	private void simulation_setup() {
-
+	private void allocate() {
 		MODEL = this.getClass().getSimpleName().toUpperCase();
 		NEIGHBOURS = RADIUS * RADIUS + (RADIUS + 1) * (RADIUS + 1) - 1;
 		TOTAL_AGENTS = ROWS * COLS;
 		BETA = 1 - ALPHA;
 		BETA_PRIME = 1 - ALPHA_PRIME;
 
-		traits = new int[ROWS][COLS][FEATURES];
-		neighboursX = new int[ROWS][COLS][NEIGHBOURS];
-		neighboursY = new int[ROWS][COLS][NEIGHBOURS];
-		neighboursN = new int[ROWS][COLS];
+		traits = TraitStore.create(TOTAL_AGENTS, FEATURES, TRAITS, PACKED_TRAITS);
+		neighbourhood = Neighbourhood.get(ROWS, COLS, RADIUS);
 
-		flags = new boolean[ROWS][COLS];
 		cultures = new int[ROWS][COLS];
 
-		rand = new Random();
-		seed = rand.nextLong();
-		rand.setSeed(seed);
+		mutation_skip = new GeometricSkip();
+		selection_skip = new GeometricSkip();
+
+		culture_stats = new CulturePool();
+		neumann_stats = new CulturePool();
+	}
+
+	/**
+	 * Setups the object in order to run the experiment. Initialize all the
+	 * variables
+	 */
+	private void simulation_setup() {
+
+		allocate();
+
+		seed = new Random().nextLong();
+		rand = Generator.create(GENERATOR, seed);
 
 		int middle_trait = (int) Math.round(TRAITS / 2.0 - 0.01);
 
-		int n = 0;
 		for (int r = 0; r < ROWS; r++) {
 			for (int c = 0; c < COLS; c++) {
 				for (int f = 0; f < FEATURES; f++) {
 					if (RANDOM_INITIALIZATION) {
-						traits[r][c][f] = rand.nextInt(TRAITS);
+						traits.set(r * COLS + c, f, rand.nextInt(TRAITS));
 					} else {
-						traits[r][c][f] = middle_trait;
-					}
-				}
-				n = 0;
-				for (int i = 0; i <= RADIUS; i++) {
-					for (int j = 0; j <= RADIUS; j++) {
-						if (j + i + 2 <= RADIUS) {
-							if (r + i + 1 < ROWS && c + j + 1 < COLS) {
-								neighboursX[r][c][n] = r + i + 1;
-								neighboursY[r][c][n] = c + j + 1;
-								n++;
-							}
-							if (r - i - 1 >= 0 && c - j - 1 >= 0) {
-								neighboursX[r][c][n] = r - i - 1;
-								neighboursY[r][c][n] = c - j - 1;
-								n++;
-							}
-						}
-						if (j + i <= RADIUS && (j != 0 || i != 0)) {
-							if (r - i >= 0 && c + j < COLS) {
-								neighboursX[r][c][n] = r - i;
-								neighboursY[r][c][n] = c + j;
-								n++;
-							}
-							if (r + i < ROWS && c - j >= 0) {
-								neighboursX[r][c][n] = r + i;
-								neighboursY[r][c][n] = c - j;
-								n++;
-							}
-						}
+						traits.set(r * COLS + c, f, middle_trait);
 					}
-					neighboursN[r][c] = n;
 				}
 			}
+		}
 
-			culture_stats = new ArrayList<CultureStatistics>();
-			neumann_stats = new ArrayList<CultureStatistics>();
+		// the initial traits are not counted as changes
+		versioned_traits = traits;
+		traits_version = traits.version();
 
+		if (progressions != null) {
+			// the header is published with the lines (see call())
+			return;
 		}
 
 		BufferedWriter writer = null;
@@ -676,18 +973,159 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 */
 	protected abstract void setup();
 
+	/**
+	 * Write the state of the world in a simulation file (see SimFile): the
+	 * counters, the seed and the state of the generator, the traits (in
+	 * bit-packed planes), the institutions and the statistics of the
+	 * cultures. The simulation is not modified, so the simulation and the copy
+	 * that is read continue with the same draws.
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if the state cannot be written
+	 */
+	void write_state(DataOutput out) throws IOException {
+		out.writeLong(seed);
+		out.writeInt(epoch);
+		out.writeInt(generation);
+		out.writeInt(iteration);
+		out.writeLong(startTime);
+		out.writeLong(endTime);
+		out.writeInt(trait_changes);
+		SimFile.write_string(out, stop_reason);
+		out.writeInt(stop_iteration);
+		out.writeInt(destoyed_institutions);
+		out.writeInt(stateless);
+		out.writeInt(apostates);
+		out.writeInt(removed_institutions);
+		out.writeInt(removed_traits);
+		out.writeInt(converted_institutions);
+		out.writeInt(converted_traits);
+		out.writeInt(settlers);
+		out.writeInt(immigrants);
+		out.writeInt(casualties);
+
+		out.writeBoolean(rand != null);
+		if (rand != null) {
+			rand.write(out);
+		}
+
+		traits.write_planes(out);
+
+		out.writeBoolean(institutionsN != null);
+		if (institutionsN != null) {
+			SimFile.write_ints(out, institutionsN);
+			SimFile.write_table(out, institution_traits);
+		}
+
+		out.writeBoolean(culture_stats != null);
+		if (culture_stats != null) {
+			culture_stats.write(out);
+			neumann_stats.write(out);
+		}
+	}
+
+	/**
+	 * Allocate the world and read its state from a simulation file (see
+	 * {@link #write_state(DataOutput)}). The parameters must have been read
+	 * already.
+	 * 
+	 * @param in
+	 *            the input
+	 * @param version
+	 *            the version of the format of the file
+	 * @throws IOException
+	 *             if the state is not valid
+	 */
+	void read_state(ByteBuffer in, short version) throws IOException {
+		allocate();
+
+		seed = in.getLong();
+		epoch = in.getInt();
+		generation = in.getInt();
+		iteration = in.getInt();
+		startTime = in.getLong();
+		endTime = in.getLong();
+		trait_changes = in.getInt();
+		stop_reason = SimFile.read_string(in);
+		stop_iteration = in.getInt();
+		destoyed_institutions = in.getInt();
+		stateless = in.getInt();
+		apostates = in.getInt();
+		removed_institutions = in.getInt();
+		removed_traits = in.getInt();
+		converted_institutions = in.getInt();
+		converted_traits = in.getInt();
+		settlers = in.getInt();
+		immigrants = in.getInt();
+		casualties = in.getInt();
+
+		if (in.get() != 0) {
+			// the first version stored a seed to restart the generator with
+			rand = version < 2 ? Generator.create(GENERATOR, in.getLong()) : Generator.read(in);
+		}
+
+		// the structures of the model, the state is read afterwards
+		setup();
+
+		traits.read_planes(in);
+
+		if (in.get() != 0) {
+			institutionsN = SimFile.read_ints(in);
+			institution_traits = SimFile.read_table(in);
+		}
+
+		if (in.get() != 0) {
+			culture_stats.read(in);
+			neumann_stats.read(in);
+		}
+
+		// the traits that were read are not counted as changes
+		versioned_traits = traits;
+		traits_version = traits.version();
+	}
+
+	/**
+	 * Write the state that is specific of the model in a simulation file
+	 * (e.g. the institutions of the agents). By default, the models only
+	 * have the state of the world.
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if the state cannot be written
+	 */
+	protected void write_model(DataOutput out) throws IOException {
+	}
+
+	/**
+	 * Read the state that is specific of the model from a simulation file
+	 * (see {@link #write_model(DataOutput)}), after the state of the world.
+	 * 
+	 * @param in
+	 *            the input, empty if the model did not write anything
+	 * @throws IOException
+	 *             if the state is not valid
+	 */
+	protected void read_model(ByteBuffer in) throws IOException {
+	}
+
 	/**
 	 * It is a sort of destructor to help the garbage collector
 	 */
 	protected void reset() {
 		traits = null;
-		neighboursX = null;
-		neighboursY = null;
-		neighboursN = null;
-		flags = null;
+		neighbourhood = null;
 		cultures = null;
+		culture_labels = null;
+		labelled_traits = null;
+		neumann_labelled_traits = null;
+		active_metrics = null;
 		culture_stats = null;
 		neumann_stats = null;
+		mutation_skip = null;
+		selection_skip = null;
 		if (starter != null && Controller.IS_BATCH) {
 			starter.clean();
 		}
@@ -699,20 +1137,49 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @param writer
 	 * @return the results of the simulations
 	 */
-	private String run_experiment_batch(BufferedWriter writer) {
-		String r = "";
-		check_for_events();
-		for (iteration = 0; iteration < ITERATIONS;) {
+	private String run_experiment_batch(CsvEncoder writer) {
+		boolean stop = false;
+		reset_stop_rule();
+		CheckpointSchedule schedule = CheckpointSchedule.parse(CHECKPOINTS, ITERATIONS);
+		boolean async = ASYNC_STATISTICS && !STOP_RULE.equals(STOP_STABLE);
+		for (iteration = 0; iteration < ITERATIONS && !stop;) {
+			boolean events_executed = check_for_events();
 			run_iterations();
 			iteration += SPEED;
 			generation += SPEED;
 
-			r = results();
+			// the last block, the blocks with events and the blocks before a
+			// pause are always checkpoints
+			if (!schedule.is_checkpoint(iteration) && !events_executed && iteration < ITERATIONS && playing) {
+				continue;
+			}
+
+			if (async) {
+				count_trait_changes();
+				stop = is_stop_rule_met();
+				// the last checkpoint (or the one before a pause) is
+				// calculated here, so the simulation has its results
+				if (!stop && iteration < ITERATIONS && playing) {
+					if (checkpoint_worker == null) {
+						checkpoint_worker = new CheckpointWorker(this);
+					}
+					checkpoint_worker.submit(writer);
+					continue;
+				}
+				if (checkpoint_worker != null) {
+					checkpoint_worker.drain();
+				}
+				calculate_metrics();
+			} else {
+				calculate_metrics();
+				count_trait_changes();
+				stop = is_stop_rule_met();
+			}
 
 			// write results of the current checkpoint
 			try {
-				writer.write(r);
-				writer.newLine();
+				encode_results(writer);
+				writer.end_line();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -724,18 +1191,18 @@ public abstract class Simulation implements Callable<String>, Serializable {
 				}
 				if (stopped) {
 					playing = false;
-					return r;
+					return get_results();
 				}
 			} // END of !playing
 
 		} // END of iterations
 
-		if (iteration == ITERATIONS) {
+		if (iteration == ITERATIONS || stop) {
 			is_finished = true;
 			playing = false;
 		}
 
-		return r;
+		return get_results();
 	}
 
 	/**
@@ -744,24 +1211,34 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @param writer
 	 * @return
 	 */
-	private String run_experiment_single(BufferedWriter writer) {
+	private String run_experiment_single(CsvEncoder writer) {
 		log.print(IDENTIFIER, "Executed in single mode (no multi-thread). \n");
 
-		String r = "";
-		for (iteration = 0; iteration < ITERATIONS;) {
+		boolean stop = false;
+		reset_stop_rule();
+		CheckpointSchedule schedule = CheckpointSchedule.parse(CHECKPOINTS, ITERATIONS);
+		for (iteration = 0; iteration < ITERATIONS && !stop;) {
 
-			check_for_events();
+			boolean events_executed = check_for_events();
 			update_gui();
 			run_iterations();
 			iteration += SPEED;
 			generation += SPEED;
 
-			r = results();
+			// the last block, the blocks with events and the blocks before a
+			// pause are always checkpoints
+			if (!schedule.is_checkpoint(iteration) && !events_executed && iteration < ITERATIONS && playing) {
+				continue;
+			}
+
+			calculate_metrics();
+			count_trait_changes();
+			stop = is_stop_rule_met();
 
 			// write results of the current checkpoint
 			try {
-				writer.write(r);
-				writer.newLine();
+				encode_results(writer);
+				writer.end_line();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -779,14 +1256,14 @@ public abstract class Simulation implements Callable<String>, Serializable {
 
 		} // END of iterations
 
-		if (iteration == ITERATIONS) {
+		if (iteration == ITERATIONS || stop) {
 			is_finished = true;
 			playing = false;
 		}
 
 		update_gui();
 
-		return r;
+		return get_results();
 	}
 
 	/**
@@ -869,6 +1346,30 @@ public abstract class Simulation implements Callable<String>, Serializable {
 		}
 	}
 
+	/**
+	 * Trial of a mutation of the current agent
+	 * 
+	 * @return true if the agent mutates
+	 */
+	protected boolean is_mutation() {
+		if (SKIP_SAMPLING) {
+			return mutation_skip.next(MUTATION, rand);
+		}
+		return rand.nextFloat() >= 1 - MUTATION;
+	}
+
+	/**
+	 * Trial of a selection error
+	 * 
+	 * @return true if there is a selection error
+	 */
+	protected boolean is_selection_error() {
+		if (SKIP_SAMPLING) {
+			return selection_skip.next(SELECTION_ERROR, rand);
+		}
+		return rand.nextFloat() >= 1 - SELECTION_ERROR;
+	}
+
 	/**
 	 * Clone the configuration of this object, this is not a deep cloning method
 	 * 
@@ -893,6 +1394,18 @@ public abstract class Simulation implements Callable<String>, Serializable {
 			clone.FREQ_PROP = this.FREQ_PROP;
 			clone.MUTATION = this.MUTATION;
 			clone.SELECTION_ERROR = this.SELECTION_ERROR;
+			clone.PACKED_TRAITS = this.PACKED_TRAITS;
+			clone.GENERATOR = this.GENERATOR;
+			clone.SKIP_SAMPLING = this.SKIP_SAMPLING;
+			clone.REJECTION_FREE = this.REJECTION_FREE;
+			clone.INCREMENTAL_VOTES = this.INCREMENTAL_VOTES;
+			clone.MEAN_FIELD = this.MEAN_FIELD;
+			clone.PARALLEL = this.PARALLEL;
+			clone.STOP_RULE = this.STOP_RULE;
+			clone.STOP_CHECKPOINTS = this.STOP_CHECKPOINTS;
+			clone.METRICS = this.METRICS;
+			clone.ASYNC_STATISTICS = this.ASYNC_STATISTICS;
+			clone.CHECKPOINTS = this.CHECKPOINTS;
 			clone.log = this.log;
 			clone.results_dir = this.results_dir;
 		} catch (InstantiationException | IllegalAccessException e) {
@@ -907,16 +1420,26 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @return header for the output files
 	 */
 	public static String header() {
+		StringBuilder registered = new StringBuilder();
+		for (Metric m : Metrics.registered()) {
+			for (String column : m.columns()) {
+				registered.append(',').append(column);
+			}
+		}
 		return "id,timestamp,duration,seed," + "model,random_initialization," + "iterations,speed,"
 				+ "rows,cols,radius,features,traits," + "mutation,selection_error,"
-				+ "institutional_influence,agent_loyalty,democracy,propaganda," + "epoch,generation,iteration,"
+				+ "institutional_influence,agent_loyalty,democracy,propaganda,"
+				+ "generator,skip_sampling,rejection_free,incremental_votes,mean_field,parallel,"
+				+ "metrics,async_statistics,checkpoints," + "epoch,generation,iteration,"
 				+ "energy,pixel_similarity," + "cultures,cultures_at_least_3,biggest_culture,full_sim,"
 				+ "pos_sim,size_sim,traits_sim,"
 				+ "neumann_cultures,neumann_cultures_at_least_3,biggest_neumann_culture,neumann_full_sim,"
 				+ "neumann_pos_sim,neumann_size_sim,neumann_traits_sim,"
 				+ "institutions,biggest_institution,pixel_institution_similarity," + "alife,foreign,"
 				+ "destroyed_institutions,stateless,apostates," + "removed_institutions,removed_traits,"
-				+ "converted_institutions,converted_traits," + "settlers,immigrants,casualties";
+				+ "converted_institutions,converted_traits," + "settlers,immigrants,casualties,"
+				+ "trait_changes,stop_reason,stop_iteration," + "global_cultures,biggest_global_culture"
+				+ registered;
 
 	}
 
@@ -926,21 +1449,178 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @return a CSV line with current results
 	 */
 	public String get_results() {
+		if (line == null) {
+			line = new CsvEncoder();
+		}
+		line.clear();
+		encode_results(line);
+		return line.toString();
+	}
+
+	/**
+	 * Encode the CSV line of the results (see {@link #get_results()}) without
+	 * creating strings
+	 * 
+	 * @param out
+	 *            the encoder that receives the fields
+	 */
+	private void encode_results(CsvEncoder out) {
+		if (timestamp == null || timestamp_time != startTime) {
+			timestamp = new java.sql.Timestamp(startTime).toString();
+			timestamp_time = startTime;
+		}
+		out.field(IDENTIFIER).field(timestamp)
+				.field((endTime == 0) ? (System.currentTimeMillis() - startTime) : (endTime - startTime))
+				.field(seed).field(MODEL).field(RANDOM_INITIALIZATION).field(ITERATIONS).field(SPEED).field(ROWS)
+				.field(COLS).field(RADIUS).field(FEATURES).field(TRAITS).field(MUTATION).field(SELECTION_ERROR)
+				.field(ALPHA).field(ALPHA_PRIME).field(FREQ_DEM).field(FREQ_PROP).field(GENERATOR)
+				.field(SKIP_SAMPLING).field(REJECTION_FREE).field(INCREMENTAL_VOTES).field(mean_field)
+				.field(PARALLEL).field(METRICS).field(ASYNC_STATISTICS).field(CHECKPOINTS).field(epoch)
+				.field(generation).field(iteration);
+		encode_metric(Metrics.ENERGY, METRIC_ENERGY, out);
+		encode_metric(Metrics.CULTURES, METRIC_CULTURES, out);
+		encode_metric(Metrics.CULTURE_SIMILARITY, METRIC_CULTURE_SIMILARITY, out);
+		encode_metric(Metrics.NEUMANN_CULTURES, METRIC_NEUMANN_CULTURES, out);
+		encode_metric(Metrics.NEUMANN_SIMILARITY, METRIC_NEUMANN_SIMILARITY, out);
+		encode_metric(Metrics.INSTITUTIONS, METRIC_INSTITUTIONS, out);
+		encode_metric(Metrics.TRAITS, METRIC_TRAITS, out);
+		out.field(destoyed_institutions).field(stateless).field(apostates).field(removed_institutions)
+				.field(removed_traits).field(converted_institutions).field(converted_traits).field(settlers)
+				.field(immigrants).field(casualties).field(trait_changes).field(stop_reason).field(stop_iteration);
+		encode_metric(Metrics.GLOBAL_CULTURES, METRIC_GLOBAL_CULTURES, out);
+
+		List<Metric> registered = Metrics.registered();
+		for (int i = 0; i < registered.size(); i++) {
+			Metric m = registered.get(i);
+			if (is_active(m)) {
+				out.field(m.values(this));
+			} else {
+				encode_not_available(m, out);
+			}
+		}
+	}
+
+	/**
+	 * Encode the values of a built-in metric, NA if it is not selected
+	 */
+	private void encode_metric(Metric metric, int id, CsvEncoder out) {
+		if (is_active(metric)) {
+			encode_metric(id, out);
+		} else {
+			encode_not_available(metric, out);
+		}
+	}
 
-		return IDENTIFIER + "," + new java.sql.Timestamp(startTime) + ","
-				+ ((endTime == 0) ? (System.currentTimeMillis() - startTime) : (endTime - startTime)) + "," + seed + ","
-				+ MODEL + "," + RANDOM_INITIALIZATION + "," + ITERATIONS + "," + SPEED + "," + ROWS + "," + COLS + ","
-				+ RADIUS + "," + FEATURES + "," + TRAITS + "," + MUTATION + "," + SELECTION_ERROR + "," + ALPHA + ","
-				+ ALPHA_PRIME + "," + FREQ_DEM + "," + FREQ_PROP + "," + epoch + "," + generation + "," + iteration
-				+ "," + energy + "," + pixel_similarity + "," + cultures_all_N + "," + cultures_at_least_3_N + ","
-				+ biggest_culture + "," + culture_similarity[FULL_SIM] + "," + culture_similarity[POS_SIM] + ","
-				+ culture_similarity[SIZE_SIM] + "," + culture_similarity[TRAITS_SIM] + "," + culture_neumann_all_N
-				+ "," + culture_neumann_at_least_3_N + "," + +biggest_neumann_culture + ","
-				+ neumann_similarity[FULL_SIM] + "," + neumann_similarity[POS_SIM] + "," + neumann_similarity[SIZE_SIM]
-				+ "," + neumann_similarity[TRAITS_SIM] + "," + alife_institutions + "," + biggest_institution + ","
-				+ institution_similarity + "," + alife_traits + "," + foreiners_traits + "," + destoyed_institutions
-				+ "," + stateless + "," + apostates + "," + removed_institutions + "," + removed_traits + ","
-				+ converted_institutions + "," + converted_traits + "," + settlers + "," + immigrants + "," + casualties;
+	/**
+	 * Encode NA in each column of a metric
+	 */
+	private void encode_not_available(Metric metric, CsvEncoder out) {
+		for (int c = Metrics.width(metric); c > 0; c--) {
+			out.field("NA");
+		}
+	}
+
+	/**
+	 * Values of the columns of a built-in metric (see {@link Metrics})
+	 * 
+	 * @param id
+	 *            the identifier of the metric
+	 * @return the CSV values of the metric
+	 */
+	String metric_values(int id) {
+		CsvEncoder values = new CsvEncoder();
+		encode_metric(id, values);
+		return values.toString();
+	}
+
+	/**
+	 * Encode the values of the columns of a built-in metric
+	 */
+	private void encode_metric(int id, CsvEncoder out) {
+		switch (id) {
+		case METRIC_ENERGY:
+			out.field(energy).field(pixel_similarity);
+			break;
+		case METRIC_CULTURES:
+			out.field(cultures_all_N).field(cultures_at_least_3_N).field(biggest_culture);
+			break;
+		case METRIC_CULTURE_SIMILARITY:
+			out.field(culture_similarity[FULL_SIM]).field(culture_similarity[POS_SIM])
+					.field(culture_similarity[SIZE_SIM]).field(culture_similarity[TRAITS_SIM]);
+			break;
+		case METRIC_NEUMANN_CULTURES:
+			out.field(culture_neumann_all_N).field(culture_neumann_at_least_3_N).field(biggest_neumann_culture);
+			break;
+		case METRIC_NEUMANN_SIMILARITY:
+			out.field(neumann_similarity[FULL_SIM]).field(neumann_similarity[POS_SIM])
+					.field(neumann_similarity[SIZE_SIM]).field(neumann_similarity[TRAITS_SIM]);
+			break;
+		case METRIC_INSTITUTIONS:
+			out.field(alife_institutions).field(biggest_institution).field(institution_similarity);
+			break;
+		case METRIC_TRAITS:
+			out.field(alife_traits).field(foreiners_traits);
+			break;
+		case METRIC_GLOBAL_CULTURES:
+			out.field(global_cultures).field(biggest_global_culture);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown metric: " + id);
+		}
+	}
+
+	/**
+	 * Calculate a built-in metric (see {@link Metrics}) for the current state
+	 * 
+	 * @param id
+	 *            the identifier of the metric
+	 */
+	void calculate_metric(int id) {
+		switch (id) {
+		case METRIC_ENERGY:
+		case METRIC_INSTITUTIONS:
+		case METRIC_TRAITS:
+			if (!responses_done) {
+				calculate_responses();
+				responses_done = true;
+			}
+			break;
+		case METRIC_CULTURES:
+			label_cultures();
+			break;
+		case METRIC_CULTURE_SIMILARITY:
+			label_cultures();
+			compare_stats(culture_stats, starter.culture_stats, culture_similarity);
+			break;
+		case METRIC_NEUMANN_CULTURES:
+			label_neumann_cultures();
+			break;
+		case METRIC_NEUMANN_SIMILARITY:
+			label_neumann_cultures();
+			compare_stats(neumann_stats, starter.neumann_stats, neumann_similarity);
+			break;
+		case METRIC_GLOBAL_CULTURES:
+			CultureRegistry registry = traits.registry();
+			global_cultures = registry.cultures();
+			biggest_global_culture = registry.biggest();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown metric: " + id);
+		}
+	}
+
+	/**
+	 * Check if a metric is selected in METRICS
+	 * 
+	 * @param metric
+	 *            the metric
+	 * @return true if the metric is calculated at each checkpoint
+	 */
+	public boolean is_active(Metric metric) {
+		if (active_metrics == null) {
+			active_metrics = Metrics.parse(METRICS);
+		}
+		return active_metrics.contains(metric);
 	}
 
 	/**
@@ -949,8 +1629,10 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @return an identification of the system
 	 */
 	public String get_identification() {
-		final DecimalFormat df = new DecimalFormat(".0#");
-		final DecimalFormat df2 = new DecimalFormat("0.E0");
+		if (df == null) {
+			df = new DecimalFormat(".0#");
+			df2 = new DecimalFormat("0.E0");
+		}
 
 		return MODEL + "(" + (RANDOM_INITIALIZATION ? "R" : "S") + ") " + ROWS + "x" + COLS + "(" + RADIUS + "): "
 				+ "F/T:" + FEATURES + "/" + TRAITS + " | " + "M/S:" + df2.format(MUTATION) + "/"
@@ -996,179 +1678,284 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	 * @return a CSV line with the results
 	 */
 	protected String results() {
-		calculate_stats();
-		calculate_neumann_stats();
-		calculate_responses();
+		calculate_metrics();
+		count_trait_changes();
 		return this.get_results();
 	}
 
 	/**
-	 * Count culture sizes, number of cultures and calculate some culture
-	 * statistics
+	 * Calculate the selected metrics (see METRICS)
 	 */
-	private void calculate_stats() {
-		biggest_culture = 0;
-		cultures_all_N = 0;
-		cultures_at_least_3_N = 0;
-		CultureStatistics cs = null;
-		culture_stats.clear();
-
-		for (int r = 0; r < ROWS; r++) {
-			for (int c = 0; c < COLS; c++) {
-				if (flags[r][c] != flag_mark) {
-
-					culture_size = 0;
-					ave_row = 0;
-					ave_col = 0;
-
-					calculate_stats_rec(r, c);
-					if (culture_size > biggest_culture) {
-						biggest_culture = culture_size;
-					}
-
-					/**
-					 * The cultural statistics are just calculated for cultures
-					 * that have at least 3 members
-					 */
-					if (culture_size > 2) {
-						cs = new CultureStatistics(culture_size, ave_row / culture_size, ave_col / culture_size,
-								traits[r][c], this);
-						culture_stats.add(cs);
-						cultures_at_least_3_N++;
-					}
-
-					cultures_all_N++;
-				}
-			}
+	private void calculate_metrics() {
+		if (active_metrics == null) {
+			active_metrics = Metrics.parse(METRICS);
+		}
+		responses_done = false;
+		for (Metric m : active_metrics) {
+			m.calculate(this);
 		}
-		flag_mark = !flag_mark;
-
 	}
 
 	/**
-	 * Auxiliar (recursive) method to count cultures
+	 * Calculate the statistics of a snapshot (see
+	 * {@link #copy_state_to(Simulation)}) and write its line of results, the
+	 * changes of the traits were already counted by the simulation
 	 * 
-	 * @param r
-	 *            current row
-	 * @param c
-	 *            current column
-	 */
-	private void calculate_stats_rec(int r, int c) {
-		flags[r][c] = flag_mark;
-		cultures[r][c] = cultures_all_N;
-		culture_size++;
-		ave_row += r;
-		ave_col += c;
+	 * @param out
+	 *            the encoder of the progression
+	 * @throws IOException
+	 *             if the line cannot be written
+	 */
+	void statistics(CsvEncoder out) throws IOException {
+		calculate_metrics();
+		encode_results(out);
+		out.end_line();
+	}
 
-		int nr = r - 1;
-		int nc = c;
-		if (nr >= 0 && flags[nr][nc] != flag_mark && this.is_same_culture(traits[r][c], traits[nr][nc])) {
-			calculate_stats_rec(nr, nc);
+	/**
+	 * Copy the state of the world into a snapshot, a clone of this simulation
+	 * whose statistics are calculated in another thread (see
+	 * CheckpointWorker) or that is kept as the starter (see
+	 * {@link #save_state()}). The buffers of the snapshot are reused.
+	 * 
+	 * @param snapshot
+	 *            the snapshot
+	 */
+	void copy_state_to(Simulation snapshot) {
+		if (snapshot.traits == null || snapshot.traits.getClass() != traits.getClass()
+				|| snapshot.traits.agents() != traits.agents() || snapshot.traits.features() != traits.features()) {
+			snapshot.traits = traits.copy();
+			snapshot.TOTAL_AGENTS = TOTAL_AGENTS;
+			snapshot.cultures = new int[ROWS][COLS];
+			snapshot.culture_stats = new CulturePool();
+			snapshot.neumann_stats = new CulturePool();
+		} else {
+			snapshot.traits.copy_from(traits);
 		}
-		nr = r + 1;
-		if (nr < ROWS && flags[nr][nc] != flag_mark && this.is_same_culture(traits[r][c], traits[nr][nc])) {
-			calculate_stats_rec(nr, nc);
+		if (institutionsN == null) {
+			snapshot.institutionsN = null;
+			snapshot.institution_traits = null;
+		} else {
+			if (snapshot.institutionsN == null) {
+				snapshot.institutionsN = new int[institutionsN.length];
+				snapshot.institution_traits = new int[institution_traits.length][FEATURES];
+			}
+			System.arraycopy(institutionsN, 0, snapshot.institutionsN, 0, institutionsN.length);
+			for (int i = 0; i < institution_traits.length; i++) {
+				System.arraycopy(institution_traits[i], 0, snapshot.institution_traits[i], 0, FEATURES);
+			}
 		}
-		nr = r;
-		nc = c - 1;
-		if (nc >= 0 && flags[nr][nc] != flag_mark && this.is_same_culture(traits[r][c], traits[nr][nc])) {
-			calculate_stats_rec(nr, nc);
+		snapshot.starter = starter;
+		snapshot.IDENTIFIER = IDENTIFIER;
+		snapshot.MODEL = MODEL;
+		snapshot.seed = seed;
+		snapshot.startTime = startTime;
+		snapshot.endTime = System.currentTimeMillis();
+		snapshot.epoch = epoch;
+		snapshot.generation = generation;
+		snapshot.iteration = iteration;
+		snapshot.trait_changes = trait_changes;
+		snapshot.mean_field = mean_field;
+		snapshot.stop_reason = stop_reason;
+		snapshot.stop_iteration = stop_iteration;
+		snapshot.destoyed_institutions = destoyed_institutions;
+		snapshot.stateless = stateless;
+		snapshot.apostates = apostates;
+		snapshot.removed_institutions = removed_institutions;
+		snapshot.removed_traits = removed_traits;
+		snapshot.converted_institutions = converted_institutions;
+		snapshot.converted_traits = converted_traits;
+		snapshot.settlers = settlers;
+		snapshot.immigrants = immigrants;
+		snapshot.casualties = casualties;
+	}
+
+	/**
+	 * Label the cultures, unless the traits did not change since the last
+	 * labelling
+	 */
+	private void label_cultures() {
+		if (labelled_traits != traits || labelled_version != traits.version()) {
+			calculate_stats();
+			labelled_traits = traits;
+			labelled_version = traits.version();
 		}
-		nc = c + 1;
-		if (nc < COLS && flags[nr][nc] != flag_mark && this.is_same_culture(traits[r][c], traits[nr][nc])) {
-			calculate_stats_rec(nr, nc);
+	}
+
+	/**
+	 * Label the Neumann cultures, unless the traits did not change since the
+	 * last labelling
+	 */
+	private void label_neumann_cultures() {
+		if (neumann_labelled_traits != traits || neumann_labelled_version != traits.version()) {
+			calculate_neumann_stats();
+			neumann_labelled_traits = traits;
+			neumann_labelled_version = traits.version();
 		}
 	}
 
 	/**
-	 * Count the number of cultures considering neighborhoods of the size of the
-	 * radius and calculate some culture statistics
+	 * Count the traits that changed since the previous checkpoint
 	 */
-	private void calculate_neumann_stats() {
-		biggest_neumann_culture = 0;
-		culture_neumann_all_N = 0;
-		culture_neumann_at_least_3_N = 0;
-		CultureStatistics cs = null;
-		neumann_stats.clear();
+	private void count_trait_changes() {
+		if (versioned_traits == traits) {
+			trait_changes = traits.version() - traits_version;
+		} else {
+			// the traits were replaced (or the simulation was read)
+			trait_changes = traits.version();
+			versioned_traits = traits;
+		}
+		traits_version = traits.version();
+	}
 
-		for (int r = 0; r < ROWS; r++) {
-			for (int c = 0; c < COLS; c++) {
-				if (flags[r][c] != flag_mark) {
+	/**
+	 * Start to check the stop rule
+	 */
+	private void reset_stop_rule() {
+		stop_checkpoints = 0;
+		last_statistics = null;
+		stop_reason = "NA";
+		stop_iteration = -1;
+	}
 
-					culture_size = 0;
-					ave_row = 0;
-					ave_col = 0;
+	/**
+	 * Check the stop rule after the results of a checkpoint were calculated,
+	 * and record the reason of the stop
+	 * 
+	 * @return true if the simulation should stop
+	 */
+	private boolean is_stop_rule_met() {
+		boolean stop = false;
+		if (STOP_RULE.equals(STOP_ABSORBING)) {
+			stop = trait_changes == 0 && is_absorbing();
+		} else if (STOP_RULE.equals(STOP_QUIET)) {
+			stop_checkpoints = (trait_changes == 0) ? stop_checkpoints + 1 : 0;
+			stop = stop_checkpoints >= STOP_CHECKPOINTS;
+		} else if (STOP_RULE.equals(STOP_STABLE)) {
+			int[] statistics = { energy, cultures_all_N, biggest_culture, culture_neumann_all_N,
+					biggest_neumann_culture, alife_institutions, biggest_institution };
+			stop_checkpoints = Arrays.equals(statistics, last_statistics) ? stop_checkpoints + 1 : 0;
+			last_statistics = statistics;
+			stop = stop_checkpoints >= STOP_CHECKPOINTS;
+		}
+		if (stop) {
+			stop_reason = STOP_RULE;
+			stop_iteration = iteration;
+		}
+		return stop;
+	}
 
-					calculate_neumann_stats_rec(r, c);
-					if (culture_size > biggest_neumann_culture) {
-						biggest_neumann_culture = culture_size;
-					}
+	/**
+	 * Check if the world is in an absorbing state, i.e. no trait can change
+	 * anymore: there are no mutations and no agent can be influenced by any of
+	 * its neighbors (see {@link #is_frozen_pair(int, int)}).
+	 * 
+	 * @return true if the traits cannot change anymore
+	 */
+	protected boolean is_absorbing() {
+		return MUTATION == 0 && are_frozen_pairs();
+	}
 
-					if (culture_size > 2) {
-						cs = new CultureStatistics(culture_size, ave_row / culture_size, ave_col / culture_size,
-								traits[r][c], this);
-						neumann_stats.add(cs);
-						culture_neumann_at_least_3_N++;
-					}
-					culture_neumann_all_N++;
+	/**
+	 * Check that no neighbor can influence its agent
+	 * 
+	 * @return true if all the pairs are frozen
+	 */
+	protected final boolean are_frozen_pairs() {
+		for (int agent = 0; agent < TOTAL_AGENTS; agent++) {
+			int neighboursN = neighbourhood.size(agent);
+			for (int n = 0; n < neighboursN; n++) {
+				if (!is_frozen_pair(agent, neighbourhood.get(agent, n))) {
+					return false;
 				}
 			}
 		}
-		flag_mark = !flag_mark;
-
+		return true;
 	}
 
 	/**
-	 * Auxiliar (recursive) method of calculate neumann stats.
+	 * Check if a neighbor cannot influence an agent anymore. By default, only
+	 * identical neighbors are safe.
 	 * 
-	 * @param r
-	 *            current row
-	 * @param c
-	 *            current column
-	 */
-	private void calculate_neumann_stats_rec(int r, int c) {
-		flags[r][c] = flag_mark;
-		cultures[r][c] = culture_neumann_all_N;
-		culture_size++;
-		ave_row += r;
-		ave_col += c;
-
-		int nr = 0;
-		int nc = 0;
-
-		for (int n = 0; n < neighboursN[r][c]; n++) {
-			nr = neighboursX[r][c][n];
-			nc = neighboursY[r][c][n];
-			if (flags[nr][nc] != flag_mark && this.is_same_culture(traits[r][c], traits[nr][nc])) {
-				calculate_neumann_stats_rec(nr, nc);
-			}
+	 * @param agent
+	 *            the agent
+	 * @param neighbour
+	 *            the neighbor
+	 * @return true if the neighbor can never change the agent
+	 */
+	protected boolean is_frozen_pair(int agent, int neighbour) {
+		return traits.same_culture(agent, neighbour);
+	}
+
+	/**
+	 * Count culture sizes, number of cultures and calculate some culture
+	 * statistics
+	 */
+	private void calculate_stats() {
+		biggest_culture = 0;
+		cultures_at_least_3_N = 0;
+		culture_stats.clear(FEATURES);
+
+		if (culture_labels == null) {
+			culture_labels = new CultureLabels(ROWS, COLS);
+		}
+		int threads = 1;
+		if (PARALLEL && TOTAL_AGENTS >= PARALLEL_LABELS_AGENTS) {
+			threads = Runtime.getRuntime().availableProcessors();
 		}
+		cultures_all_N = culture_labels.label(traits, cultures, threads);
+
+		for (int culture = 0; culture < cultures_all_N; culture++) {
+			int culture_size = culture_labels.size(culture);
+			if (culture_size > biggest_culture) {
+				biggest_culture = culture_size;
+			}
 
+			/**
+			 * The cultural statistics are just calculated for cultures that
+			 * have at least 3 members
+			 */
+			if (culture_size > 2) {
+				culture_stats.add(culture_size, culture_labels.row(culture), culture_labels.col(culture), traits,
+						culture_labels.first(culture));
+				cultures_at_least_3_N++;
+			}
+		}
 	}
 
 	/**
-	 * Compare if two cultures are equivalent
-	 * 
-	 * @param c1
-	 *            array of the culture to compare
-	 * @param c2
-	 *            array of another culture to compare
-	 * @return
+	 * Count the number of cultures considering neighborhoods of the size of the
+	 * radius and calculate some culture statistics
 	 */
-	private boolean is_same_culture(int[] c1, int[] c2) {
-		boolean fellow = true;
-		for (int f = 0; f < FEATURES; f++) {
-			if (c1[f] != c2[f]) {
-				fellow = false;
-				f = FEATURES;
+	private void calculate_neumann_stats() {
+		biggest_neumann_culture = 0;
+		culture_neumann_at_least_3_N = 0;
+		neumann_stats.clear(FEATURES);
+
+		if (culture_labels == null) {
+			culture_labels = new CultureLabels(ROWS, COLS);
+		}
+		culture_neumann_all_N = culture_labels.label_radius(traits, RADIUS, cultures);
+
+		for (int culture = 0; culture < culture_neumann_all_N; culture++) {
+			int culture_size = culture_labels.size(culture);
+			if (culture_size > biggest_neumann_culture) {
+				biggest_neumann_culture = culture_size;
+			}
+
+			if (culture_size > 2) {
+				neumann_stats.add(culture_size, culture_labels.row(culture), culture_labels.col(culture), traits,
+						culture_labels.first(culture));
+				culture_neumann_at_least_3_N++;
 			}
 		}
-		return fellow;
 	}
 
 	/**
 	 * Calculate the energy of the system, the amount of foreign and alife
-	 * traits, and the similarity with the starter state
+	 * traits, the number of institutions and the similarity with the starter
+	 * state, all in a single pass over the agents (the institutions are
+	 * indexed as the agents that founded them)
 	 */
 	private void calculate_responses() {
 		pixel_similarity = 0;
@@ -1176,131 +1963,70 @@ public abstract class Simulation implements Callable<String>, Serializable {
 		alife_traits = 0;
 		foreiners_traits = 0;
 		institution_similarity = 0;
+
+		boolean has_institutions = institutionsN != null;
+		boolean compare_institutions = has_institutions && institution_traits != null
+				&& starter.institutionsN != null && starter.institution_traits != null;
+		if (has_institutions) {
+			alife_institutions = 0;
+			biggest_institution = 0;
+		}
+
+		int agent = 0;
 		for (int r = 0; r < ROWS; r++) {
-			for (int c = 0; c < COLS; c++) {
-				if (institutionsN != null && institution_traits != null) {
-					if (institutionsN[r * ROWS + c] > 0 && starter.institutionsN[r * ROWS + c] > 0) {
+			for (int c = 0; c < COLS; c++, agent++) {
+				if (has_institutions && institutionsN[agent] > 0) {
+					alife_institutions++;
+					if (institutionsN[agent] > biggest_institution) {
+						biggest_institution = institutionsN[agent];
+					}
+					if (compare_institutions && starter.institutionsN[agent] > 0) {
+						int[] it = institution_traits[agent];
+						int[] starter_it = starter.institution_traits[agent];
 						for (int f = 0; f < FEATURES; f++) {
-							if (institution_traits[r * ROWS + c][f] == starter.institution_traits[r * ROWS + c][f]) {
+							if (it[f] == starter_it[f]) {
 								institution_similarity++;
 							}
 						}
 					}
 				}
 
-				for (int f = 0; f < FEATURES; f++) {
-					if (traits[r][c][f] == starter.traits[r][c][f]) {
-						pixel_similarity++;
-					}
-					if (traits[r][c][f] == TRAITS) {
-						foreiners_traits++;
-					}
-					if (traits[r][c][f] != DEAD_TRAIT) {
-						alife_traits++;
-					}
-					if (c + 1 < COLS && (traits[r][c][f] != traits[r][c + 1][f])) {
-						energy++;
-					}
-					if (r + 1 < COLS && (traits[r + 1][c][f] != traits[r + 1][c][f])) {
-						energy++;
-					}
+				pixel_similarity += traits.equal_traits(agent, starter.traits);
+				foreiners_traits += traits.count(agent, TRAITS);
+				alife_traits += traits.alive(agent);
+				// only the horizontal borders count, as it always did
+				if (c + 1 < COLS) {
+					energy += traits.different_traits(agent, agent + 1);
 				}
 			}
 		}
-
-		compare_stats(neumann_stats, starter.neumann_stats, neumann_similarity);
-		compare_stats(culture_stats, starter.culture_stats, culture_similarity);
-
 	}
 
 	/**
 	 * Compare the statistics of two instants of the cultural evolution
 	 * 
 	 * @param stats1
-	 *            list of statistics of one state
+	 *            statistics of the cultures of one state
 	 * @param stats2
-	 *            list of statistics of another state
+	 *            statistics of the cultures of another state
 	 * @param sims
 	 *            the results of the comparison
 	 */
-	private void compare_stats(List<CultureStatistics> stats1, List<CultureStatistics> stats2, double[] sims) {
-
-		if (stats1.size() == 0 || stats2.size() == 0) {
-			sims[FULL_SIM] = 0.0;
-			sims[POS_SIM] = 0.0;
-			sims[SIZE_SIM] = 0.0;
-			sims[TRAITS_SIM] = 0.0;
-			return;
-		}
+	private void compare_stats(CulturePool stats1, CulturePool stats2, double[] sims) {
 
 		sims[FULL_SIM] = 0.0;
 		sims[POS_SIM] = 0.0;
 		sims[SIZE_SIM] = 0.0;
 		sims[TRAITS_SIM] = 0.0;
-		double full_sim = 0;
-		double temp_full_sim = 0;
-		double pos_sim = 0;
-		double temp_pos_sim = 0;
-		double size_sim = 0;
-		double temp_size_sim = 0;
-		double trait_sim = 0;
-		double temp_trait_sim = 0;
-
-		for (Iterator<CultureStatistics> i1 = stats1.iterator(); i1.hasNext();) {
-			CultureStatistics cs1 = (CultureStatistics) i1.next();
-			full_sim = 0;
-			pos_sim = 0;
-			size_sim = 0;
-			trait_sim = 0;
-
-			for (Iterator<CultureStatistics> i2 = stats2.iterator(); i2.hasNext();) {
-				CultureStatistics cs2 = (CultureStatistics) i2.next();
-				temp_pos_sim = cs1.compare_positions(cs2);
-				temp_size_sim = cs1.compare_size(cs2);
-				temp_trait_sim = cs1.compare_traits(cs2);
-				temp_full_sim = temp_pos_sim * temp_size_sim * temp_trait_sim;
-				if (full_sim < temp_full_sim) {
-					full_sim = temp_full_sim;
-					pos_sim = temp_pos_sim;
-					size_sim = temp_size_sim;
-					trait_sim = temp_trait_sim;
-				}
-			}
-
-			sims[FULL_SIM] += full_sim;
-			sims[POS_SIM] += pos_sim;
-			sims[SIZE_SIM] += size_sim;
-			sims[TRAITS_SIM] += trait_sim;
-		}
-
-		for (Iterator<CultureStatistics> i1 = stats2.iterator(); i1.hasNext();) {
-			CultureStatistics cs1 = (CultureStatistics) i1.next();
-			full_sim = 0;
-			pos_sim = 0;
-			size_sim = 0;
-			trait_sim = 0;
-
-			for (Iterator<CultureStatistics> i2 = stats1.iterator(); i2.hasNext();) {
-				CultureStatistics cs2 = (CultureStatistics) i2.next();
-				temp_pos_sim = cs1.compare_positions(cs2);
-				temp_size_sim = cs1.compare_size(cs2);
-				temp_trait_sim = cs1.compare_traits(cs2);
-				temp_full_sim = temp_pos_sim * temp_size_sim * temp_trait_sim;
-				if (full_sim < temp_full_sim) {
-					full_sim = temp_full_sim;
-					pos_sim = temp_pos_sim;
-					size_sim = temp_size_sim;
-					trait_sim = temp_trait_sim;
-				}
-			}
 
-			sims[FULL_SIM] += full_sim;
-			sims[POS_SIM] += pos_sim;
-			sims[SIZE_SIM] += size_sim;
-			sims[TRAITS_SIM] += trait_sim;
+		if (stats1.cultures() == 0 || stats2.cultures() == 0) {
+			return;
 		}
 
-		double size = stats1.size() + stats2.size();
+		add_best_matches(stats1, stats2, sims);
+		add_best_matches(stats2, stats1, sims);
+
+		double size = stats1.cultures() + stats2.cultures();
 		sims[FULL_SIM] = sims[FULL_SIM] / size;
 		sims[POS_SIM] = sims[POS_SIM] / size;
 		sims[SIZE_SIM] = sims[SIZE_SIM] / size;
@@ -1308,10 +2034,75 @@ public abstract class Simulation implements Callable<String>, Serializable {
 
 	}
 
+	/**
+	 * Add the similarities of each culture of a state with its most similar
+	 * culture of another state (see CultureMatcher)
+	 * 
+	 * @param stats1
+	 *            the cultures to match
+	 * @param stats2
+	 *            the cultures in which the matches are searched
+	 * @param sims
+	 *            the sums of the similarities
+	 */
+	private void add_best_matches(final CulturePool stats1, CulturePool stats2, double[] sims) {
+		final CultureMatcher matcher = new CultureMatcher(stats2, ROWS, COLS, TOTAL_AGENTS);
+		final int[] matches = new int[stats1.cultures()];
+
+		int threads = 1;
+		if (PARALLEL && (long) stats1.cultures() * stats2.cultures() >= PARALLEL_MATCHES) {
+			threads = Math.min(Runtime.getRuntime().availableProcessors(), stats1.cultures());
+		}
+		if (threads > 1) {
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				workers[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = first; i < matches.length; i += step) {
+							matches[i] = matcher.best_match(stats1, i);
+						}
+					}
+				});
+				workers[t].start();
+			}
+			for (Thread worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					Thread.currentThread().interrupt();
+				}
+			}
+		} else {
+			for (int i = 0; i < matches.length; i++) {
+				matches[i] = matcher.best_match(stats1, i);
+			}
+		}
+
+		// the sums are done in the order of the list, so they do not depend
+		// on the threads
+		for (int i = 0; i < matches.length; i++) {
+			if (matches[i] >= 0) {
+				double pos_sim = stats1.compare_positions(i, stats2, matches[i], ROWS, COLS);
+				double size_sim = stats1.compare_size(i, stats2, matches[i], TOTAL_AGENTS);
+				double trait_sim = stats1.compare_traits(i, stats2, matches[i]);
+				sims[FULL_SIM] += pos_sim * size_sim * trait_sim;
+				sims[POS_SIM] += pos_sim;
+				sims[SIZE_SIM] += size_sim;
+				sims[TRAITS_SIM] += trait_sim;
+			}
+		}
+	}
+
 	/**
 	 * Check if there is events that need to occur
+	 * 
+	 * @return true if any event was executed
 	 */
-	private void check_for_events() {
+	private boolean check_for_events() {
 		if (events.size() > 0) {
 			calculate_institutions_centers();
 			executing_events = true;
@@ -1324,7 +2115,9 @@ public abstract class Simulation implements Callable<String>, Serializable {
 				CulturalSimulator.controller.restore_parameters_to_interface();
 			}
 			executing_events = false;
+			return true;
 		}
+		return false;
 	}
 
 	/**
@@ -1485,7 +2278,7 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	public void settle(int r, int c, int nr, int nc) {
 		this.settlers++;
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = TRAITS;
+			traits.set(r * COLS + c, f, TRAITS);
 		}
 	}
 	
@@ -1501,7 +2294,7 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	public void immigrate(int r, int c) {
 		this.immigrants++;
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = TRAITS;
+			traits.set(r * COLS + c, f, TRAITS);
 		}
 	}
 
@@ -1517,7 +2310,7 @@ public abstract class Simulation implements Callable<String>, Serializable {
 	public void kill_individual(int r, int c) {
 		this.casualties++;
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = DEAD_TRAIT;
+			traits.set(r * COLS + c, f, DEAD_TRAIT);
 		}
 	}
 
@@ -1528,7 +2321,9 @@ public abstract class Simulation implements Callable<String>, Serializable {
 		if (!Controller.IS_BATCH) {
 			print_cultural_spaces();
 			update_culture_graphs();
-			CulturalSimulator.l_start_identification.setText("S: " + starter.get_identification());
+			if (starter != null) {
+				CulturalSimulator.l_start_identification.setText("S: " + starter.get_identification());
+			}
 			CulturalSimulator.l_current_identification.setText("C: " + get_identification());
 		}
 	}
@@ -1566,7 +2361,7 @@ public abstract class Simulation implements Callable<String>, Serializable {
 			for (int c = 0; c < COLS; c++) {
 				String cultural_space_ohex = "";
 				for (int f = 0; f < Math.min(FEATURES, 6); f++) {
-					cultural_space_ohex += get_color_for_trait(traits[r][c][f]);
+					cultural_space_ohex += get_color_for_trait(traits.get(r * COLS + c, f));
 				}
 				cultural_space_ohex = "#" + cultural_space_ohex;
 
@@ -0,0 +1,829 @@
+package simulator.control;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * This class stores the cultural vectors of all the agents of a world in a
+ * single contiguous array. The agents are identified by their position in the
+ * grid (row * COLS + column), and the traits of an agent occupy FEATURES
+ * consecutive positions of the array, so comparing two agents never chases
+ * pointers.
+ *
+ * The narrowest primitive type that is able to hold all the possible values of
+ * a trait is selected: a trait can take the values from 0 to TRAITS - 1, the
+ * value TRAITS for the foreign traits, and negative values for the dead
+ * traits. Optionally, when there are at most 16 features and 14 traits (so the
+ * foreign and the dead traits still fit), the whole cultural vector of an agent
+ * is packed in a long at 4 bits per trait, and agents are compared with a few
+ * word-parallel (SWAR) operations instead of loops over the features.
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+public abstract class TraitStore implements Serializable {
+	private static final long serialVersionUID = -2817436104479541077L;
+
+	/**
+	 * Number of agents of the store
+	 */
+	protected final int agents;
+	/**
+	 * Number of features of each cultural vector
+	 */
+	protected final int features;
+	/**
+	 * Number of changes of the traits (writes that do not change the trait are
+	 * not counted), so indexes built from the traits can find out that they are
+	 * out of date, and the simulation can find out that nothing happens
+	 */
+	protected int version = 0;
+	/**
+	 * Registry of the cultures (see {@link #registry()}) and the version of
+	 * the traits it counted
+	 */
+	private transient CultureRegistry registry = null;
+	private transient int registry_version = 0;
+
+	/**
+	 * Constructor of the store
+	 *
+	 * @param agents
+	 *            number of agents of the world
+	 * @param features
+	 *            number of features of each cultural vector
+	 */
+	protected TraitStore(int agents, int features) {
+		this.agents = agents;
+		this.features = features;
+	}
+
+	/**
+	 * Creates a store that uses the smallest primitive type in which all the
+	 * traits (including the foreign trait) fit.
+	 *
+	 * @param agents
+	 *            number of agents of the world
+	 * @param features
+	 *            number of features of each cultural vector
+	 * @param traits
+	 *            number of traits per feature
+	 * @param packed
+	 *            pack the cultural vectors in a long when they fit
+	 * @return an empty store
+	 */
+	public static TraitStore create(int agents, int features, int traits, boolean packed) {
+		if (packed && fits_packed(features, traits)) {
+			return new Packed(agents, features);
+		} else if (traits <= Byte.MAX_VALUE) {
+			return new Bytes(agents, features);
+		} else if (traits <= Short.MAX_VALUE) {
+			return new Shorts(agents, features);
+		}
+		return new Ints(agents, features);
+	}
+
+	/**
+	 * Check if the cultural vectors can be packed in a long, i.e. if all the
+	 * traits (including the foreign and the dead traits) of all the features
+	 * fit in 4 bits each.
+	 *
+	 * @param features
+	 *            number of features of each cultural vector
+	 * @param traits
+	 *            number of traits per feature
+	 * @return true if the vectors fit in a long
+	 */
+	public static boolean fits_packed(int features, int traits) {
+		return features <= Packed.MAX_FEATURES && traits <= Packed.MAX_TRAITS;
+	}
+
+	/**
+	 * Return the trait of an agent
+	 *
+	 * @param agent
+	 *            the agent (row * COLS + column)
+	 * @param f
+	 *            the feature
+	 * @return the trait of the agent for the feature
+	 */
+	public abstract int get(int agent, int f);
+
+	/**
+	 * Set the trait of an agent
+	 *
+	 * @param agent
+	 *            the agent (row * COLS + column)
+	 * @param f
+	 *            the feature
+	 * @param t
+	 *            the new trait
+	 * @return true if the trait changed
+	 */
+	public final boolean set(int agent, int f, int t) {
+		if (registry == null) {
+			if (put(agent, f, t)) {
+				version++;
+				return true;
+			}
+			return false;
+		}
+		long before = culture_hash(agent);
+		if (put(agent, f, t)) {
+			// the registry is rebuilt later if it was already out of date
+			if (registry_version == version++) {
+				registry.move(before, culture_hash(agent));
+				registry_version = version;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Set the trait of an agent without counting the change in the version,
+	 * so agents in different parts of the world can be modified concurrently.
+	 * The changes have to be counted later (see {@link #changed(int)}).
+	 *
+	 * @param agent
+	 *            the agent (row * COLS + column)
+	 * @param f
+	 *            the feature
+	 * @param t
+	 *            the new trait
+	 * @return true if the trait changed
+	 */
+	public abstract boolean put(int agent, int f, int t);
+
+	/**
+	 * Count changes made with {@link #put(int, int, int)}
+	 *
+	 * @param changes
+	 *            the number of changes
+	 */
+	public void changed(int changes) {
+		version += changes;
+	}
+
+	/**
+	 * Copy all the traits of another store of the same type and dimensions
+	 *
+	 * @param other
+	 *            the store to copy from
+	 */
+	public abstract void copy_from(TraitStore other);
+
+	/**
+	 * Creates a deep copy of the store
+	 *
+	 * @return a copy of the store
+	 */
+	public abstract TraitStore copy();
+
+	/**
+	 * Write the traits in a simulation file (see SimFile), one plane per
+	 * feature, with the traits of all the agents packed in longs at the
+	 * minimum number of bits for the biggest trait of the store
+	 *
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if the traits cannot be written
+	 */
+	void write_planes(DataOutput out) throws IOException {
+		int max = 0;
+		for (int agent = 0; agent < agents; agent++) {
+			for (int f = 0; f < features; f++) {
+				max = Math.max(max, get(agent, f) - Simulation.DEAD_TRAIT);
+			}
+		}
+		int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+		out.writeInt(agents);
+		out.writeInt(features);
+		out.writeByte(bits);
+		for (int f = 0; f < features; f++) {
+			long word = 0;
+			int filled = 0;
+			for (int agent = 0; agent < agents; agent++) {
+				long v = get(agent, f) - Simulation.DEAD_TRAIT;
+				word |= v << filled;
+				filled += bits;
+				if (filled >= 64) {
+					out.writeLong(word);
+					filled -= 64;
+					word = (filled > 0) ? v >>> (bits - filled) : 0;
+				}
+			}
+			if (filled > 0) {
+				out.writeLong(word);
+			}
+		}
+	}
+
+	/**
+	 * Read the traits from a simulation file (see
+	 * {@link #write_planes(DataOutput)})
+	 *
+	 * @param in
+	 *            the input
+	 * @throws IOException
+	 *             if the planes do not have the dimensions of the store
+	 */
+	void read_planes(ByteBuffer in) throws IOException {
+		int a = in.getInt();
+		int fs = in.getInt();
+		int bits = in.get();
+		if (a != agents || fs != features || bits < 1 || bits > 32) {
+			throw new IOException("The traits (" + a + "x" + fs + ") do not fit in the world (" + agents + "x"
+					+ features + ").");
+		}
+		long mask = (1L << bits) - 1;
+		int changes = 0;
+		for (int f = 0; f < features; f++) {
+			long word = 0;
+			int available = 0;
+			for (int agent = 0; agent < agents; agent++) {
+				long v;
+				if (available >= bits) {
+					v = word & mask;
+					word >>>= bits;
+					available -= bits;
+				} else {
+					long next = in.getLong();
+					v = (word | (next << available)) & mask;
+					word = next >>> (bits - available);
+					available = 64 - (bits - available);
+				}
+				if (put(agent, f, (int) v + Simulation.DEAD_TRAIT)) {
+					changes++;
+				}
+			}
+		}
+		changed(changes);
+	}
+
+	/**
+	 * Registry of the cultures of the store. It is built the first time it is
+	 * requested and then kept up to date by {@link #set(int, int, int)};
+	 * changes made in other ways (see {@link #put(int, int, int)} and
+	 * {@link #copy_from(TraitStore)}) make it count all the agents again in
+	 * the next request.
+	 *
+	 * @return the registry of the cultures
+	 */
+	public CultureRegistry registry() {
+		if (registry == null) {
+			registry = new CultureRegistry(agents);
+			registry_version = version - 1;
+		}
+		if (registry_version != version) {
+			registry.rebuild(this);
+			registry_version = version;
+		}
+		return registry;
+	}
+
+	/**
+	 * Number of changes of the traits since the store was created
+	 *
+	 * @return the version of the traits
+	 */
+	public int version() {
+		return version;
+	}
+
+	/**
+	 * Number of agents of the store
+	 *
+	 * @return the number of agents
+	 */
+	public int agents() {
+		return agents;
+	}
+
+	/**
+	 * Number of features of each agent
+	 *
+	 * @return the number of features
+	 */
+	public int features() {
+		return features;
+	}
+
+	/**
+	 * Copy the cultural vector of an agent into an array
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param v
+	 *            the array that receives the traits
+	 * @param offset
+	 *            position of the array that receives the first trait
+	 */
+	public void vector(int agent, int[] v, int offset) {
+		for (int f = 0; f < features; f++) {
+			v[offset + f] = get(agent, f);
+		}
+	}
+
+	/**
+	 * Compare if two agents have exactly the same cultural vector
+	 *
+	 * @param a1
+	 *            one agent
+	 * @param a2
+	 *            the other agent
+	 * @return true if all the traits are identical
+	 */
+	public boolean same_culture(int a1, int a2) {
+		for (int f = 0; f < features; f++) {
+			if (get(a1, f) != get(a2, f)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hash of the cultural vector of an agent, agents with the same culture
+	 * have the same hash
+	 *
+	 * @param agent
+	 *            the agent
+	 * @return the hash of the cultural vector
+	 */
+	public long culture_hash(int agent) {
+		long h = 0;
+		for (int f = 0; f < features; f++) {
+			h = (h + get(agent, f)) * 0x9E3779B97F4A7C15L;
+		}
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * Count the features in which the traits of two agents are different,
+	 * ignoring the features in which the neighbor is dead. The features are
+	 * stored in ascending order.
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param neighbour
+	 *            the neighbor
+	 * @param mismatches
+	 *            array where the mismatching features are stored
+	 * @return the number of mismatching features
+	 */
+	public int mismatches(int agent, int neighbour, int[] mismatches) {
+		int mismatchesN = 0;
+		for (int f = 0; f < features; f++) {
+			int t = get(neighbour, f);
+			if (t != Simulation.DEAD_TRAIT && t != get(agent, f)) {
+				mismatches[mismatchesN++] = f;
+			}
+		}
+		return mismatchesN;
+	}
+
+	/**
+	 * Count the differences between two agents: the features in which the
+	 * neighbor is dead plus the features in which both are alive and their
+	 * traits are different.
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param neighbour
+	 *            the neighbor
+	 * @return the number of differences
+	 */
+	public int differences(int agent, int neighbour) {
+		int differences = 0;
+		for (int f = 0; f < features; f++) {
+			int nt = get(neighbour, f);
+			if (nt == Simulation.DEAD_TRAIT) {
+				differences++;
+			} else {
+				int t = get(agent, f);
+				if (t != nt && t != Simulation.DEAD_TRAIT) {
+					differences++;
+				}
+			}
+		}
+		return differences;
+	}
+
+	/**
+	 * Count the features in which the neighbor is alive and the agent has
+	 * either the same trait or a dead trait.
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param neighbour
+	 *            the neighbor
+	 * @return the number of matches
+	 */
+	public int matches(int agent, int neighbour) {
+		int matches = 0;
+		for (int f = 0; f < features; f++) {
+			int nt = get(neighbour, f);
+			if (nt != Simulation.DEAD_TRAIT) {
+				int t = get(agent, f);
+				if (t == Simulation.DEAD_TRAIT || t == nt) {
+					matches++;
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Store the features in which an agent is alive
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param alive
+	 *            array where the features are stored in ascending order
+	 * @return the number of features in which the agent is alive
+	 */
+	public int alive(int agent, int[] alive) {
+		int aliveN = 0;
+		for (int f = 0; f < features; f++) {
+			if (get(agent, f) != Simulation.DEAD_TRAIT) {
+				alive[aliveN++] = f;
+			}
+		}
+		return aliveN;
+	}
+
+	/**
+	 * Count the features in which an agent is alive
+	 *
+	 * @param agent
+	 *            the agent
+	 * @return the number of features in which the agent is alive
+	 */
+	public int alive(int agent) {
+		int aliveN = 0;
+		for (int f = 0; f < features; f++) {
+			if (get(agent, f) != Simulation.DEAD_TRAIT) {
+				aliveN++;
+			}
+		}
+		return aliveN;
+	}
+
+	/**
+	 * Count the features in which two agents have different traits (dead
+	 * traits included)
+	 *
+	 * @param a1
+	 *            one agent
+	 * @param a2
+	 *            the other agent
+	 * @return the number of different traits
+	 */
+	public int different_traits(int a1, int a2) {
+		int differentN = 0;
+		for (int f = 0; f < features; f++) {
+			if (get(a1, f) != get(a2, f)) {
+				differentN++;
+			}
+		}
+		return differentN;
+	}
+
+	/**
+	 * Count the features in which an agent has the same trait in this store
+	 * and in another store of the same dimensions
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param other
+	 *            the other store
+	 * @return the number of equal traits
+	 */
+	public int equal_traits(int agent, TraitStore other) {
+		int equalN = 0;
+		for (int f = 0; f < features; f++) {
+			if (get(agent, f) == other.get(agent, f)) {
+				equalN++;
+			}
+		}
+		return equalN;
+	}
+
+	/**
+	 * Count the features in which an agent has a trait
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param trait
+	 *            the trait (it can be the foreign or the dead trait)
+	 * @return the number of features with the trait
+	 */
+	public int count(int agent, int trait) {
+		int countN = 0;
+		for (int f = 0; f < features; f++) {
+			if (get(agent, f) == trait) {
+				countN++;
+			}
+		}
+		return countN;
+	}
+
+	/**
+	 * Cultural vectors packed in a long, 4 bits per trait. The dead traits are
+	 * stored as 0xF.
+	 */
+	static final class Packed extends TraitStore {
+		private static final long serialVersionUID = -1730406275640335337L;
+
+		/**
+		 * Maximum number of features that fit in a long
+		 */
+		static final int MAX_FEATURES = 16;
+		/**
+		 * Maximum number of traits so the foreign trait (TRAITS) and the dead
+		 * trait (0xF) still fit in 4 bits
+		 */
+		static final int MAX_TRAITS = 14;
+		/**
+		 * The lowest bit of each nibble
+		 */
+		private static final long LOW = 0x1111111111111111L;
+		/**
+		 * Code of a dead trait
+		 */
+		private static final int DEAD = 0xF;
+
+		private final long[] t;
+		/**
+		 * The lowest bit of the nibbles that are used by the features
+		 */
+		private final long low;
+
+		Packed(int agents, int features) {
+			super(agents, features);
+			t = new long[agents];
+			low = (features == MAX_FEATURES) ? LOW : LOW & ((1L << (4 * features)) - 1);
+		}
+
+		/**
+		 * Mark (lowest bit of the nibble) the nibbles that are not zero
+		 */
+		private long non_zero(long x) {
+			return (x | (x >>> 1) | (x >>> 2) | (x >>> 3)) & low;
+		}
+
+		/**
+		 * Mark (lowest bit of the nibble) the nibbles that contain a dead trait
+		 */
+		private long dead(long x) {
+			return x & (x >>> 1) & (x >>> 2) & (x >>> 3) & low;
+		}
+
+		@Override
+		public int get(int agent, int f) {
+			int v = (int) (t[agent] >>> (f << 2)) & 0xF;
+			return (v == DEAD) ? Simulation.DEAD_TRAIT : v;
+		}
+
+		@Override
+		public boolean put(int agent, int f, int trait) {
+			long v = (trait < 0) ? DEAD : trait;
+			int shift = f << 2;
+			long w = (t[agent] & ~(0xFL << shift)) | (v << shift);
+			if (w != t[agent]) {
+				t[agent] = w;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void copy_from(TraitStore other) {
+			System.arraycopy(((Packed) other).t, 0, t, 0, t.length);
+			version++;
+		}
+
+		@Override
+		public TraitStore copy() {
+			Packed p = new Packed(agents, features);
+			p.copy_from(this);
+			return p;
+		}
+
+		@Override
+		public boolean same_culture(int a1, int a2) {
+			return t[a1] == t[a2];
+		}
+
+		@Override
+		public long culture_hash(int agent) {
+			// the packed vector itself
+			return t[agent];
+		}
+
+		@Override
+		public int mismatches(int agent, int neighbour, int[] mismatches) {
+			long wn = t[neighbour];
+			long m = non_zero(t[agent] ^ wn) & ~dead(wn);
+			int mismatchesN = 0;
+			while (m != 0) {
+				mismatches[mismatchesN++] = Long.numberOfTrailingZeros(m) >>> 2;
+				m &= m - 1;
+			}
+			return mismatchesN;
+		}
+
+		@Override
+		public int differences(int agent, int neighbour) {
+			long wa = t[agent];
+			long wn = t[neighbour];
+			long dn = dead(wn);
+			return Long.bitCount(dn) + Long.bitCount(non_zero(wa ^ wn) & ~dn & ~dead(wa));
+		}
+
+		@Override
+		public int matches(int agent, int neighbour) {
+			long wa = t[agent];
+			long wn = t[neighbour];
+			return Long.bitCount(~dead(wn) & (dead(wa) | ~non_zero(wa ^ wn)) & low);
+		}
+
+		@Override
+		public int alive(int agent, int[] alive) {
+			long m = ~dead(t[agent]) & low;
+			int aliveN = 0;
+			while (m != 0) {
+				alive[aliveN++] = Long.numberOfTrailingZeros(m) >>> 2;
+				m &= m - 1;
+			}
+			return aliveN;
+		}
+
+		@Override
+		public int alive(int agent) {
+			return features - Long.bitCount(dead(t[agent]));
+		}
+
+		@Override
+		public int different_traits(int a1, int a2) {
+			return Long.bitCount(non_zero(t[a1] ^ t[a2]));
+		}
+
+		@Override
+		public int equal_traits(int agent, TraitStore other) {
+			if (!(other instanceof Packed)) {
+				return super.equal_traits(agent, other);
+			}
+			return features - Long.bitCount(non_zero(t[agent] ^ ((Packed) other).t[agent]));
+		}
+
+		@Override
+		public int count(int agent, int trait) {
+			long v = (trait < 0) ? DEAD : trait;
+			if (v > DEAD) {
+				return 0;
+			}
+			return features - Long.bitCount(non_zero(t[agent] ^ (v * LOW)));
+		}
+	}
+
+	/**
+	 * Traits stored in a byte each
+	 */
+	static final class Bytes extends TraitStore {
+		private static final long serialVersionUID = 4437120839511390675L;
+		private final byte[] t;
+
+		Bytes(int agents, int features) {
+			super(agents, features);
+			t = new byte[agents * features];
+		}
+
+		@Override
+		public int get(int agent, int f) {
+			return t[agent * features + f];
+		}
+
+		@Override
+		public boolean put(int agent, int f, int trait) {
+			int i = agent * features + f;
+			if (t[i] != (byte) trait) {
+				t[i] = (byte) trait;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void copy_from(TraitStore other) {
+			System.arraycopy(((Bytes) other).t, 0, t, 0, t.length);
+			version++;
+		}
+
+		@Override
+		public TraitStore copy() {
+			Bytes b = new Bytes(agents, features);
+			b.copy_from(this);
+			return b;
+		}
+
+		@Override
+		public boolean same_culture(int a1, int a2) {
+			int i1 = a1 * features;
+			int i2 = a2 * features;
+			for (int f = 0; f < features; f++) {
+				if (t[i1 + f] != t[i2 + f]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Traits stored in a short each
+	 */
+	static final class Shorts extends TraitStore {
+		private static final long serialVersionUID = -6084712397708012954L;
+		private final short[] t;
+
+		Shorts(int agents, int features) {
+			super(agents, features);
+			t = new short[agents * features];
+		}
+
+		@Override
+		public int get(int agent, int f) {
+			return t[agent * features + f];
+		}
+
+		@Override
+		public boolean put(int agent, int f, int trait) {
+			int i = agent * features + f;
+			if (t[i] != (short) trait) {
+				t[i] = (short) trait;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void copy_from(TraitStore other) {
+			System.arraycopy(((Shorts) other).t, 0, t, 0, t.length);
+			version++;
+		}
+
+		@Override
+		public TraitStore copy() {
+			Shorts s = new Shorts(agents, features);
+			s.copy_from(this);
+			return s;
+		}
+	}
+
+	/**
+	 * Traits stored in an int each
+	 */
+	static final class Ints extends TraitStore {
+		private static final long serialVersionUID = 1502987386610218830L;
+		private final int[] t;
+
+		Ints(int agents, int features) {
+			super(agents, features);
+			t = new int[agents * features];
+		}
+
+		@Override
+		public int get(int agent, int f) {
+			return t[agent * features + f];
+		}
+
+		@Override
+		public boolean put(int agent, int f, int trait) {
+			int i = agent * features + f;
+			if (t[i] != trait) {
+				t[i] = trait;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void copy_from(TraitStore other) {
+			System.arraycopy(((Ints) other).t, 0, t, 0, t.length);
+			version++;
+		}
+
+		@Override
+		public TraitStore copy() {
+			Ints i = new Ints(agents, features);
+			i.copy_from(this);
+			return i;
+		}
+	}
+
+}
@@ -76,6 +76,7 @@ public class CulturalParameters extends JDialog implements Notifiable {
 	 * The components that keep the values of the parameters
 	 */
 	public static JCheckBox cb_random_initialization;
+	public static JCheckBox cb_parallel;
 	public static JSpinner sp_influence;
 	public static JSpinner sp_loyalty;
 	public static JSpinner sp_democracy;
@@ -261,7 +262,7 @@ public class CulturalParameters extends JDialog implements Notifiable {
 			}
 			{
 				JPanel panel_2 = new JPanel();
-				panel_2.setBounds(10, 56, 150, 124);
+				panel_2.setBounds(10, 56, 150, 149);
 				panel_1.add(panel_2);
 				panel_2.setBorder(
 						new TitledBorder(null, "Controls", TitledBorder.LEADING, TitledBorder.TOP, null, null));
@@ -312,6 +313,12 @@ public class CulturalParameters extends JDialog implements Notifiable {
 				cb_random_initialization.setSelected(true);
 				cb_random_initialization.setBounds(6, 16, 134, 23);
 				panel_2.add(cb_random_initialization);
+
+				cb_parallel = new JCheckBox("Parallel");
+				cb_parallel.setToolTipText(
+						"Update the strips of the grid in parallel (only M1) and label the cultures of big grids in parallel");
+				cb_parallel.setBounds(6, 118, 134, 23);
+				panel_2.add(cb_parallel);
 			}
 			{
 				JPanel panel_1_1 = new JPanel();
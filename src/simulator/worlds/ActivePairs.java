@@ -0,0 +1,274 @@
+package simulator.worlds;
+
+import java.util.Arrays;
+
+import simulator.control.Generator;
+import simulator.control.Neighbourhood;
+import simulator.control.TraitStore;
+
+/**
+ * Index of the active agent-neighbour pairs of M1, i.e. the pairs in which the
+ * neighbour has at least one (alive) trait that the agent could copy. The
+ * pairs are classified by their number of differences, because the
+ * probability of interaction only depends on it.
+ *
+ * A pair is identified by its slot: the position of the neighbour in the list
+ * of neighbours of the agent, offset by the neighbours of all the previous
+ * agents. The index is updated incrementally after the traits of an agent
+ * change, which only affects the pairs in which the agent participates (the
+ * neighbourhoods are symmetric).
+ *
+ * @author Roberto Ulloa
+ * @version 1.0, October 2026
+ */
+final class ActivePairs {
+
+	/**
+	 * The neighbourhood of the world
+	 */
+	private final Neighbourhood neighbourhood;
+	/**
+	 * First slot of each agent
+	 */
+	private final int[] base;
+	/**
+	 * Agent of each slot
+	 */
+	private final int[] owner;
+	/**
+	 * Slot of the reversed pair (the neighbour with the agent as neighbour)
+	 */
+	private final int[] mirror;
+	/**
+	 * Class (differences) of each slot, -1 if the pair is not active
+	 */
+	private final short[] classes;
+	/**
+	 * Position of each slot in the list of its class
+	 */
+	private final int[] positions;
+	/**
+	 * Active slots of each class
+	 */
+	private final int[][] lists;
+	/**
+	 * Number of active slots of each class
+	 */
+	private final int[] counts;
+	/**
+	 * Smallest neighbourhood of the world
+	 */
+	private final int min_neighbours;
+	/**
+	 * Buffer for the mismatches
+	 */
+	private final int[] mismatches;
+
+	/**
+	 * Builds an empty index
+	 *
+	 * @param neighbourhood
+	 *            the neighbourhood of the world
+	 * @param agents
+	 *            the number of agents of the world
+	 * @param features
+	 *            the number of features
+	 */
+	ActivePairs(Neighbourhood neighbourhood, int agents, int features) {
+		this.neighbourhood = neighbourhood;
+
+		base = new int[agents + 1];
+		int min = Integer.MAX_VALUE;
+		for (int a = 0; a < agents; a++) {
+			int size = neighbourhood.size(a);
+			base[a + 1] = base[a] + size;
+			min = Math.min(min, size);
+		}
+		min_neighbours = min;
+
+		int slots = base[agents];
+		owner = new int[slots];
+		mirror = new int[slots];
+
+		// the positions of the neighbours of each agent, sorted by neighbour
+		int[] sorted = new int[slots];
+		long[] keys = new long[neighbourhood.max()];
+		for (int a = 0; a < agents; a++) {
+			int size = neighbourhood.size(a);
+			if (keys.length < size) {
+				keys = new long[size];
+			}
+			for (int n = 0; n < size; n++) {
+				owner[base[a] + n] = a;
+				keys[n] = ((long) neighbourhood.get(a, n) << 32) | n;
+			}
+			Arrays.sort(keys, 0, size);
+			for (int n = 0; n < size; n++) {
+				sorted[base[a] + n] = (int) keys[n];
+			}
+		}
+		// the agents are visited in order, so the next agent that has a
+		// neighbour as neighbour is the next one in the sorted positions of
+		// the neighbour
+		int[] next = new int[agents];
+		System.arraycopy(base, 0, next, 0, agents);
+		for (int a = 0; a < agents; a++) {
+			int size = neighbourhood.size(a);
+			for (int n = 0; n < size; n++) {
+				int neighbour = neighbourhood.get(a, n);
+				mirror[base[a] + n] = base[neighbour] + sorted[next[neighbour]++];
+			}
+		}
+
+		classes = new short[slots];
+		positions = new int[slots];
+		lists = new int[features + 1][16];
+		counts = new int[features + 1];
+		mismatches = new int[features];
+	}
+
+	/**
+	 * Classify all the pairs
+	 *
+	 * @param traits
+	 *            the traits of the world
+	 */
+	void rebuild(TraitStore traits) {
+		for (int d = 0; d < counts.length; d++) {
+			counts[d] = 0;
+		}
+		for (int slot = 0; slot < owner.length; slot++) {
+			classes[slot] = -1;
+			classify(slot, traits);
+		}
+	}
+
+	/**
+	 * Classify again the pairs in which an agent participates
+	 *
+	 * @param agent
+	 *            the agent whose traits changed
+	 * @param traits
+	 *            the traits of the world
+	 */
+	void update(int agent, TraitStore traits) {
+		for (int slot = base[agent]; slot < base[agent + 1]; slot++) {
+			classify(slot, traits);
+			classify(mirror[slot], traits);
+		}
+	}
+
+	/**
+	 * Move a slot to the list of its current class
+	 */
+	private void classify(int slot, TraitStore traits) {
+		int agent = owner[slot];
+		int neighbour = neighbourhood.get(agent, slot - base[agent]);
+		int d = -1;
+		if (traits.mismatches(agent, neighbour, mismatches) > 0) {
+			d = traits.differences(agent, neighbour);
+		}
+		int old = classes[slot];
+		if (old == d) {
+			return;
+		}
+		if (old >= 0) {
+			// swap with the last of the list
+			int last = lists[old][--counts[old]];
+			lists[old][positions[slot]] = last;
+			positions[last] = positions[slot];
+		}
+		if (d >= 0) {
+			if (counts[d] == lists[d].length) {
+				int[] grown = new int[lists[d].length * 2];
+				System.arraycopy(lists[d], 0, grown, 0, counts[d]);
+				lists[d] = grown;
+			}
+			positions[slot] = counts[d];
+			lists[d][counts[d]++] = slot;
+		}
+		classes[slot] = (short) d;
+	}
+
+	/**
+	 * Sum of the probabilities of interaction of the active pairs
+	 *
+	 * @param probabilities
+	 *            probability of interaction of each class
+	 * @return the total weight of the active pairs
+	 */
+	double weight(float[] probabilities) {
+		double w = 0;
+		for (int d = 0; d < counts.length; d++) {
+			w += probabilities[d] * (double) counts[d];
+		}
+		return w;
+	}
+
+	/**
+	 * Select an active pair with probability proportional to the probability
+	 * of interaction of its class divided by the number of neighbours of the
+	 * agent. The division is done by thinning: the pair is rejected with
+	 * probability 1 - min_neighbours / neighbours.
+	 *
+	 * @param probabilities
+	 *            probability of interaction of each class
+	 * @param weight
+	 *            the current total weight (see {@link #weight(float[])})
+	 * @param rand
+	 *            the random number generator
+	 * @return the slot of the selected pair, or -1 if it was rejected
+	 */
+	int sample(float[] probabilities, double weight, Generator rand) {
+		double x = rand.nextDouble() * weight;
+		int d = 0;
+		for (; d < counts.length - 1; d++) {
+			x -= probabilities[d] * (double) counts[d];
+			if (x < 0 && counts[d] > 0) {
+				break;
+			}
+		}
+		// rounding errors
+		while (counts[d] == 0 || probabilities[d] == 0) {
+			d--;
+		}
+		int slot = lists[d][rand.nextInt(counts[d])];
+		int neighboursN = base[owner[slot] + 1] - base[owner[slot]];
+		if (neighboursN > min_neighbours && rand.nextInt(neighboursN) >= min_neighbours) {
+			return -1;
+		}
+		return slot;
+	}
+
+	/**
+	 * The agent of a pair
+	 *
+	 * @param slot
+	 *            the slot of the pair
+	 * @return the agent
+	 */
+	int agent(int slot) {
+		return owner[slot];
+	}
+
+	/**
+	 * The neighbour of a pair
+	 *
+	 * @param slot
+	 *            the slot of the pair
+	 * @return the neighbour
+	 */
+	int neighbour(int slot) {
+		int agent = owner[slot];
+		return neighbourhood.get(agent, slot - base[agent]);
+	}
+
+	/**
+	 * Smallest neighbourhood of the world
+	 *
+	 * @return the number of neighbours
+	 */
+	int min_neighbours() {
+		return min_neighbours;
+	}
+}
@@ -1,6 +1,16 @@
 package simulator.worlds;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import simulator.control.Generator;
+import simulator.control.GeometricSkip;
 import simulator.control.Simulation;
+import simulator.control.TraitStore;
 
 /**
  * This class implements Axelrod (1997), but includes the perturbation elements
@@ -36,6 +46,31 @@ public class M1 extends Simulation {
 	 */
 	protected transient int mutant_feature;
 
+	/**
+	 * Above this probability of change per agent update, the rejection-free
+	 * algorithm is slower than the standard updates
+	 */
+	private static final double MAX_EVENT_RATE = 0.02;
+
+	/**
+	 * Index of the active pairs for the rejection-free algorithm, and the
+	 * traits (and their version) it was built from
+	 */
+	private transient ActivePairs pairs = null;
+	private transient TraitStore pairs_traits = null;
+	private transient int pairs_version = -1;
+	/**
+	 * Probability of interaction per number of differences
+	 */
+	private transient float[] class_probabilities = null;
+
+	/**
+	 * Strips of the grid and the threads that update them when PARALLEL is
+	 * active
+	 */
+	private transient Strip[] strips = null;
+	private transient ExecutorService executor = null;
+
 	@Override
 	public void setup() {
 		mismatches = new int[FEATURES];
@@ -47,6 +82,21 @@ public class M1 extends Simulation {
 		super.reset();
 		mismatches = null;
 		non_death_features = null;
+		pairs = null;
+		pairs_traits = null;
+		class_probabilities = null;
+		strips = null;
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	@Override
+	protected boolean is_frozen_pair(int agent, int neighbour) {
+		// without selection error, there is no interaction without overlap
+		return traits.same_culture(agent, neighbour)
+				|| SELECTION_ERROR == 0 && traits.differences(agent, neighbour) == FEATURES;
 	}
 
 	@Override
@@ -57,74 +107,291 @@ public class M1 extends Simulation {
 
 	@Override
 	public void run_iterations() {
-		for (int ic = 0; ic < SPEED; ic++) {
-			for (int i = 0; i < TOTAL_AGENTS; i++) {
-
-				// select the agent
-				int r = rand.nextInt(ROWS);
-				int c = rand.nextInt(COLS);
-
-				// select the neighbor that might influence the agent
-				int n = rand.nextInt(neighboursN[r][c]);
-				int nr = neighboursX[r][c][n];
-				int nc = neighboursY[r][c][n];
-
-				// get the number of mismatches between the two agents
-				int mismatchesN = 0;
-				int non_death_traitsN = 0;
-
-				// differences consider death (or just born) agents after
-				// decimation
-				int differences = 0;
-				for (int f = 0; f < FEATURES; f++) {
-					if (traits[nr][nc][f] != DEAD_TRAIT) {
-						non_death_features[non_death_traitsN] = f;
-						non_death_traitsN++;
-						if (traits[r][c][f] != traits[nr][nc][f]) {
-							mismatches[mismatchesN] = f;
-							mismatchesN++;
-							if (traits[r][c][f] != DEAD_TRAIT) {
-								differences++;
-							}
-						}
-					} else {
-						differences++;
-					}
+		if (REJECTION_FREE) {
+			run_rejection_free((long) SPEED * TOTAL_AGENTS);
+		} else if (PARALLEL && prepare_strips()) {
+			run_parallel();
+		} else {
+			for (int ic = 0; ic < SPEED; ic++) {
+				for (int i = 0; i < TOTAL_AGENTS; i++) {
+					update_agent(rand, mismatches, mutation_skip, selection_skip, 0, ROWS, false);
 				}
+			} // END of checkpoint
+		}
+	} // END of run_experiment
+
+	/**
+	 * Select a random agent (of the given rows) and a random neighbor, and
+	 * perform the possible interaction and mutation between them. If other
+	 * threads are updating the world, the traits are written with
+	 * {@link TraitStore#put(int, int, int)}, so the caller has to report the
+	 * changes to the store.
+	 * 
+	 * @param rand
+	 *            the random number generator
+	 * @param mismatches
+	 *            buffer for the mismatches
+	 * @param mutation_skip
+	 *            trials of mutation if SKIP_SAMPLING is active
+	 * @param selection_skip
+	 *            trials of selection error if SKIP_SAMPLING is active
+	 * @param first_row
+	 *            first row in which the agent can be selected
+	 * @param rows
+	 *            number of rows in which the agent can be selected
+	 * @param concurrent
+	 *            true if other threads are updating the world
+	 * @return the number of traits that changed
+	 */
+	private int update_agent(Generator rand, int[] mismatches, GeometricSkip mutation_skip,
+			GeometricSkip selection_skip, int first_row, int rows, boolean concurrent) {
+		int changes = 0;
 
-				if (non_death_traitsN > 0) {
+		// select the agent
+		int r = first_row + rand.nextInt(rows);
+		int c = rand.nextInt(COLS);
 
-					int agents_overlap = FEATURES - differences;
+		int agent = r * COLS + c;
 
-					// Check for selection error
-					boolean is_selection_error = rand.nextFloat() >= 1 - SELECTION_ERROR;
-					// Check for interaction
-					boolean is_interaction = rand.nextFloat() >= 1 - ((float) agents_overlap / (float) FEATURES);
+		// select the neighbor that might influence the agent
+		int neighbour = neighbourhood.get(agent, rand.nextInt(neighbourhood.size(agent)));
 
-					// check if there is actual interaction
-					if (is_interaction && !is_selection_error || !is_interaction && is_selection_error) {
-						int selected_feature = -99;
-						if (mismatchesN > 0)
-							selected_feature = mismatches[rand.nextInt(mismatchesN)];
-						else
-							selected_feature = mismatches[rand.nextInt(FEATURES)];
-						traits[r][c][selected_feature] = traits[nr][nc][selected_feature];
-					}
+		// the neighbour needs at least one alive trait to influence
+		if (traits.alive(neighbour) > 0) {
 
-					// mutation
-					if (rand.nextFloat() >= 1 - MUTATION) {
-						mutant_feature = rand.nextInt(FEATURES);
+			// get the mismatches between the two agents
+			int mismatchesN = traits.mismatches(agent, neighbour, mismatches);
 
-						// Don't change dead features
-						if (mutant_feature != DEAD_TRAIT) {
-							traits[r][c][mutant_feature] = rand.nextInt(TRAITS);
-						}
-					}
+			// differences consider death (or just born) agents after
+			// decimation
+			int differences = traits.differences(agent, neighbour);
+
+			int agents_overlap = FEATURES - differences;
+
+			// Check for selection error
+			boolean is_selection_error = SKIP_SAMPLING ? selection_skip.next(SELECTION_ERROR, rand)
+					: rand.nextFloat() >= 1 - SELECTION_ERROR;
+			// Check for interaction
+			boolean is_interaction = rand.nextFloat() >= 1 - ((float) agents_overlap / (float) FEATURES);
+
+			// check if there is actual interaction
+			if (is_interaction && !is_selection_error || !is_interaction && is_selection_error) {
+				int selected_feature = -99;
+				if (mismatchesN > 0)
+					selected_feature = mismatches[rand.nextInt(mismatchesN)];
+				else
+					selected_feature = mismatches[rand.nextInt(FEATURES)];
+				int trait = traits.get(neighbour, selected_feature);
+				if (concurrent ? traits.put(agent, selected_feature, trait) : traits.set(agent, selected_feature, trait)) {
+					changes++;
 				}
+			}
+
+			// mutation
+			if (SKIP_SAMPLING ? mutation_skip.next(MUTATION, rand) : rand.nextFloat() >= 1 - MUTATION) {
+				int mutant_feature = rand.nextInt(FEATURES);
 
-			} // END of total agents
+				// Don't change dead features
+				if (mutant_feature != DEAD_TRAIT) {
+					int trait = rand.nextInt(TRAITS);
+					if (concurrent ? traits.put(agent, mutant_feature, trait) : traits.set(agent, mutant_feature, trait)) {
+						changes++;
+					}
+				}
+			}
+		}
+		return changes;
+	}
 
+	/**
+	 * Update the grid by strips of rows in parallel. The grid is divided in
+	 * horizontal strips of at least RADIUS rows, so the agents of a strip
+	 * never read the agents of the strips that are not adjacent to it. In
+	 * each iteration, all the even strips are updated concurrently and then
+	 * all the odd strips; each strip does as many updates as agents it has,
+	 * with its own random number generator.
+	 * 
+	 * Inside a strip, the updates are random sequential as in the standard
+	 * algorithm. The differences are that the number of updates of each strip
+	 * per iteration is fixed (instead of binomially distributed) and that the
+	 * updates of adjacent strips are not interleaved, but alternated by
+	 * halves of iteration. The results only depend on the seed, not on the
+	 * number of threads or their scheduling.
+	 */
+	private void run_parallel() {
+		for (int ic = 0; ic < SPEED; ic++) {
+			for (int parity = 0; parity < 2; parity++) {
+				List<Strip> phase = new ArrayList<Strip>();
+				for (int s = parity; s < strips.length; s += 2) {
+					phase.add(strips[s]);
+				}
+				try {
+					executor.invokeAll(phase);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (Strip strip : phase) {
+					traits.changed(strip.changes);
+				}
+			}
 		} // END of checkpoint
+	}
 
-	} // END of run_experiment
+	/**
+	 * Divide the grid in strips the first time it is updated in parallel
+	 * 
+	 * @return false if the grid is too small to have two strips
+	 */
+	private boolean prepare_strips() {
+		if (strips != null) {
+			return true;
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripsN = Math.min(ROWS / Math.max(RADIUS, 1), 2 * processors);
+		if (stripsN < 2) {
+			return false;
+		}
+		strips = new Strip[stripsN];
+		int first_row = 0;
+		for (int s = 0; s < stripsN; s++) {
+			int rows = (ROWS - first_row) / (stripsN - s);
+			strips[s] = new Strip(first_row, rows, Generator.create(GENERATOR, rand.nextLong()));
+			first_row += rows;
+		}
+		executor = Executors.newFixedThreadPool(Math.min(processors, (stripsN + 1) / 2), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Strips of " + IDENTIFIER);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * A strip of rows of the grid that is updated by a single thread
+	 */
+	private final class Strip implements Callable<Void> {
+		private final int first_row;
+		private final int rows;
+		private final Generator rand;
+		private final int[] mismatches = new int[FEATURES];
+		private final GeometricSkip mutation_skip = new GeometricSkip();
+		private final GeometricSkip selection_skip = new GeometricSkip();
+		/**
+		 * Traits changed in the last phase
+		 */
+		private int changes;
+
+		private Strip(int first_row, int rows, Generator rand) {
+			this.first_row = first_row;
+			this.rows = rows;
+			this.rand = rand;
+		}
+
+		@Override
+		public Void call() {
+			changes = 0;
+			int updates = rows * COLS;
+			for (int i = 0; i < updates; i++) {
+				changes += update_agent(rand, mismatches, mutation_skip, selection_skip, first_row, rows, true);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Perform the given number of agent updates with a rejection-free (kinetic
+	 * Monte Carlo) algorithm. Instead of simulating each update, the number of
+	 * updates until the next one that can change a trait is sampled from a
+	 * geometric distribution, and the update is taken from the mixture of:
+	 * 
+	 * 1. A mutation (probability MUTATION per update): the agent and the
+	 * neighbor are selected as usual and the interaction is tried before the
+	 * mutation.
+	 * 
+	 * 2. An interaction without mutation (probability p(1 - MUTATION) / (A * N)
+	 * per update and active pair, where p is the probability of interaction of
+	 * the pair, A the number of agents and N the number of neighbors of the
+	 * agent): the pair is sampled from the index of active pairs.
+	 * 
+	 * The distribution of the sequence of changes is the same as in the
+	 * standard updates, except that a pair whose neighbor has no trait that the
+	 * agent could copy never interacts (the standard update copies a trait of
+	 * the mismatches of a previous pair in that case). When changes are so
+	 * frequent that the index is more expensive than the updates it saves
+	 * (MAX_EVENT_RATE), the remaining updates are done in the standard way.
+	 * 
+	 * @param updates
+	 *            number of agent updates
+	 */
+	private void run_rejection_free(long updates) {
+		if (pairs == null) {
+			pairs = new ActivePairs(neighbourhood, TOTAL_AGENTS, FEATURES);
+			class_probabilities = new float[FEATURES + 1];
+		}
+
+		// the index is out of date if anything else modified the traits
+		if (pairs_traits != traits || pairs_version != traits.version()) {
+			pairs.rebuild(traits);
+			pairs_traits = traits;
+			pairs_version = traits.version();
+		}
+
+		// probability of interaction per number of differences
+		for (int d = 0; d <= FEATURES; d++) {
+			float overlap = (FEATURES - d) / (float) FEATURES;
+			class_probabilities[d] = overlap * (1 - SELECTION_ERROR) + (1 - overlap) * SELECTION_ERROR;
+		}
+
+		double thinning = (1 - MUTATION) / ((double) TOTAL_AGENTS * pairs.min_neighbours());
+		while (updates > 0) {
+			double weight = pairs.weight(class_probabilities);
+			double event_rate = MUTATION + weight * thinning;
+			if (event_rate > MAX_EVENT_RATE) {
+				for (; updates > 0; updates--) {
+					update_agent(rand, mismatches, mutation_skip, selection_skip, 0, ROWS, false);
+				}
+				return;
+			}
+
+			// skip the updates in which nothing happens
+			long skip = GeometricSkip.sample(event_rate, rand);
+			if (skip > updates) {
+				return;
+			}
+			updates -= skip;
+
+			int agent;
+			if (rand.nextDouble() * event_rate < MUTATION) {
+				agent = rand.nextInt(ROWS) * COLS + rand.nextInt(COLS);
+				int neighbour = neighbourhood.get(agent, rand.nextInt(neighbourhood.size(agent)));
+				if (traits.alive(neighbour) == 0) {
+					continue;
+				}
+				int mismatchesN = traits.mismatches(agent, neighbour, mismatches);
+				if (mismatchesN > 0
+						&& rand.nextFloat() < class_probabilities[traits.differences(agent, neighbour)]) {
+					int selected_feature = mismatches[rand.nextInt(mismatchesN)];
+					traits.set(agent, selected_feature, traits.get(neighbour, selected_feature));
+				}
+				mutant_feature = rand.nextInt(FEATURES);
+				traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
+			} else {
+				int slot = pairs.sample(class_probabilities, weight, rand);
+				if (slot < 0) {
+					continue;
+				}
+				agent = pairs.agent(slot);
+				int neighbour = pairs.neighbour(slot);
+				int mismatchesN = traits.mismatches(agent, neighbour, mismatches);
+				int selected_feature = mismatches[rand.nextInt(mismatchesN)];
+				traits.set(agent, selected_feature, traits.get(neighbour, selected_feature));
+			}
+			pairs.update(agent, traits);
+			pairs_version = traits.version();
+		}
+	}
 }
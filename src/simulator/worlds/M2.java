@@ -1,5 +1,11 @@
 package simulator.worlds;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import simulator.control.GeometricSkip;
+import simulator.control.TraitStore;
+
 /**
  * This class implements the experiment 2 (Multilateral Social influence without
  * homophily) of Flache and Macy (2011), in which: 1. Homophily is not considered
@@ -25,13 +31,45 @@ public class M2 extends M1 {
 	 * Candidates for the trait
 	 */
 	protected int[] trait_candidates;
+	/**
+	 * Random draws of the neighbors of the current agent
+	 */
+	protected float[] draws;
+	/**
+	 * Votes of all the neighbors of each agent (agent, feature, trait)
+	 * maintained incrementally for INCREMENTAL_VOTES, and the traits (and
+	 * their version) they were counted from
+	 */
+	private transient int[] neighbour_votes = null;
+	private transient TraitStore votes_traits = null;
+	private transient int votes_version = -1;
+	/**
+	 * Traits of the agent before the update
+	 */
+	private transient int[] previous = null;
+	/**
+	 * Histogram of the traits of all the agents (feature, trait), and the
+	 * traits (and their version) it was counted from
+	 */
+	private transient int[] global_votes = null;
+	private transient TraitStore global_traits = null;
+	private transient int global_version = -1;
 
 	@Override
 	public void setup() {
 		votes = new int[FEATURES][TRAITS + 1];
 		feature_candidates = new int[FEATURES];
 		trait_candidates = new int[TRAITS];
+		draws = new float[2 * neighbourhood.max()];
 
+		// compare the agents outside the neighborhoods with the neighbors
+		long outside = 0;
+		long inside = 0;
+		for (int agent = 0; agent < TOTAL_AGENTS; agent++) {
+			inside += neighbourhood.size(agent);
+			outside += TOTAL_AGENTS - 1 - neighbourhood.size(agent);
+		}
+		mean_field = MEAN_FIELD && outside * 4 <= inside;
 	}
 
 	@Override
@@ -40,6 +78,62 @@ public class M2 extends M1 {
 		votes = null;
 		feature_candidates = null;
 		trait_candidates = null;
+		draws = null;
+		neighbour_votes = null;
+		votes_traits = null;
+		previous = null;
+		global_votes = null;
+		global_traits = null;
+	}
+
+	/**
+	 * The draws were not saved by the previous format of the simulation
+	 * files (see Simulation#readObject)
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (draws == null && neighbourhood != null) {
+			draws = new float[2 * neighbourhood.max()];
+		}
+	}
+
+	@Override
+	protected boolean is_absorbing() {
+		if (MUTATION > 0) {
+			return false;
+		} else if (SELECTION_ERROR > 0) {
+			return are_frozen_pairs();
+		}
+
+		// without selection error all the neighbors vote, so nothing changes
+		// if no trait has more votes than the current trait of its agent
+		for (int agent = 0; agent < TOTAL_AGENTS; agent++) {
+			for (int f = 0; f < FEATURES; f++) {
+				for (int t = 0; t < TRAITS; t++) {
+					votes[f][t] = 0;
+				}
+			}
+			int neighboursN = neighbourhood.size(agent);
+			for (int n = 0; n < neighboursN; n++) {
+				int neighbour = neighbourhood.get(agent, n);
+				for (int f = 0; f < FEATURES; f++) {
+					int neighbour_trait = traits.get(neighbour, f);
+					if (neighbour_trait != DEAD_TRAIT) {
+						votes[f][neighbour_trait]++;
+					}
+				}
+			}
+			for (int f = 0; f < FEATURES; f++) {
+				int current_trait = traits.get(agent, f);
+				int current_votes = (current_trait == DEAD_TRAIT) ? 0 : votes[f][current_trait];
+				for (int t = 0; t < TRAITS; t++) {
+					if (votes[f][t] > current_votes) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
 	}
 
 	@Override
@@ -49,10 +143,19 @@ public class M2 extends M1 {
 
 	@Override
 	public void run_iterations() {
+		if (mean_field) {
+			run_mean_field();
+			return;
+		} else if (INCREMENTAL_VOTES) {
+			run_incremental_votes();
+			return;
+		}
 		for (int ic = 0; ic < SPEED; ic++) {
 			for (int i = 0; i < TOTAL_AGENTS; i++) {
 				int r = rand.nextInt(ROWS);
 				int c = rand.nextInt(COLS);
+				int agent = r * COLS + c;
+				int neighboursN = neighbourhood.size(agent);
 
 				// clean the votes
 				for (int f = 0; f < FEATURES; f++) {
@@ -62,75 +165,336 @@ public class M2 extends M1 {
 				}
 
 				// iterate over the neighbors to calculate the votes
-				for (int n = 0; n < neighboursN[r][c]; n++) {
+				if (!SKIP_SAMPLING) {
+					rand.fill(draws, neighboursN);
+				}
+				for (int n = 0; n < neighboursN; n++) {
 					// selection error
-					if (rand.nextFloat() < 1 - SELECTION_ERROR) {
-						int nr = neighboursX[r][c][n];
-						int nc = neighboursY[r][c][n];
+					if (SKIP_SAMPLING ? !selection_skip.next(SELECTION_ERROR, rand) : draws[n] < 1 - SELECTION_ERROR) {
+						int neighbour = neighbourhood.get(agent, n);
 						for (int f = 0; f < FEATURES; f++) {
-							if (traits[nr][nc][f] != DEAD_TRAIT) {
-								votes[f][traits[nr][nc][f]]++;
+							int neighbour_trait = traits.get(neighbour, f);
+							if (neighbour_trait != DEAD_TRAIT) {
+								votes[f][neighbour_trait]++;
 							}
 						}
 					}
 				}
 
-				// get the candidates features
-				int feature_candidatesN = 0;
-				for (int f = 0; f < FEATURES; f++) {
-					int current_trait = traits[r][c][f];
-					int current_trait_votes = 0;
-					if (current_trait != DEAD_TRAIT) {
-						current_trait_votes = votes[f][current_trait];
+				// adopt the trait with more votes
+				vote(agent);
+
+				// mutation
+				if (is_mutation()) {
+					mutant_feature = rand.nextInt(FEATURES);
+					// Don't change dead features
+					if (mutant_feature != DEAD_TRAIT) {
+						traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
 					}
-					for (int t = 0; t < TRAITS; t++) {
-						if (t != current_trait && votes[f][t] >= current_trait_votes) {
-							feature_candidates[feature_candidatesN++] = f;
-							t = TRAITS;
+				}
+			}
+		} // END of checkpoint
+
+	} // END of run_experiment
+
+	/**
+	 * Run the iterations with the votes of the neighbors of each agent
+	 * maintained incrementally, so an update does not need to visit the
+	 * neighbors. The neighbors ignored because of selection error are the
+	 * positions of the successes of independent trials (sampled by geometric
+	 * skipping), and their traits are subtracted from the votes. Each update
+	 * costs O(FEATURES x TRAITS) plus O(NEIGHBOURS) for each trait that
+	 * changes.
+	 */
+	private void run_incremental_votes() {
+		int stride = FEATURES * (TRAITS + 1);
+		if (neighbour_votes == null) {
+			neighbour_votes = new int[TOTAL_AGENTS * stride];
+			previous = new int[FEATURES];
+		}
+
+		// count the votes again if anything else modified the traits
+		if (votes_traits != traits || votes_version != traits.version()) {
+			count_neighbour_votes();
+		}
+
+		for (int ic = 0; ic < SPEED; ic++) {
+			for (int i = 0; i < TOTAL_AGENTS; i++) {
+				int r = rand.nextInt(ROWS);
+				int c = rand.nextInt(COLS);
+				int agent = r * COLS + c;
+				int neighboursN = neighbourhood.size(agent);
+
+				// the votes of all the neighbors
+				int base = agent * stride;
+				for (int f = 0; f < FEATURES; f++) {
+					System.arraycopy(neighbour_votes, base + f * (TRAITS + 1), votes[f], 0, TRAITS + 1);
+				}
+
+				// remove the neighbors ignored by selection error
+				for (long n = GeometricSkip.sample(SELECTION_ERROR, rand) - 1; n < neighboursN; n += GeometricSkip
+						.sample(SELECTION_ERROR, rand)) {
+					int neighbour = neighbourhood.get(agent, (int) n);
+					for (int f = 0; f < FEATURES; f++) {
+						int neighbour_trait = traits.get(neighbour, f);
+						if (neighbour_trait != DEAD_TRAIT) {
+							votes[f][neighbour_trait]--;
 						}
 					}
 				}
 
-				// select the candidate
-				if (feature_candidatesN > 0) {
-					int selected_feature = feature_candidates[rand.nextInt(feature_candidatesN)];
-					int max_trait = traits[r][c][selected_feature];
-					int current_votes = 0;
-					if (max_trait != DEAD_TRAIT) {
-						current_votes = votes[selected_feature][max_trait];
-					}
-					int max_votes = current_votes;
-					int trait_candidatesN = 0;
+				for (int f = 0; f < FEATURES; f++) {
+					previous[f] = traits.get(agent, f);
+				}
 
-					// get the candidate traits
-					for (int t = 0; t < TRAITS; t++) {
-						int v = votes[selected_feature][t];
-						if (max_votes == v) {
-							trait_candidates[trait_candidatesN++] = t;
-						} else if (max_votes < v) {
-							trait_candidates[0] = t;
-							trait_candidatesN = 1;
-							max_votes = v;
+				// adopt the trait with more votes
+				vote(agent);
+
+				// mutation
+				if (is_mutation()) {
+					mutant_feature = rand.nextInt(FEATURES);
+					traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
+				}
+
+				// move the votes of the agent in the counts of its neighbors
+				if (votes_version != traits.version()) {
+					for (int f = 0; f < FEATURES; f++) {
+						int t = traits.get(agent, f);
+						if (t != previous[f]) {
+							move_vote(agent, f, previous[f], t);
 						}
 					}
+					votes_version = traits.version();
+				}
+			}
+		} // END of checkpoint
+	}
 
-					// select the trait
-					if (max_votes > current_votes) {
-						traits[r][c][selected_feature] = trait_candidates[rand.nextInt(trait_candidatesN)];
+	/**
+	 * Run the iterations when the neighborhoods cover (almost) the whole grid.
+	 * The votes of an agent are the global histogram of traits minus the
+	 * agent itself, minus the agents outside its neighborhood, and minus the
+	 * neighbors ignored by selection error (sampled by geometric skipping as
+	 * in {@link #run_incremental_votes()}). The histogram is updated in O(1)
+	 * per trait change.
+	 */
+	private void run_mean_field() {
+		if (global_votes == null) {
+			global_votes = new int[FEATURES * (TRAITS + 1)];
+			previous = new int[FEATURES];
+		}
+
+		// count the votes again if anything else modified the traits
+		if (global_traits != traits || global_version != traits.version()) {
+			count_global_votes();
+		}
+
+		for (int ic = 0; ic < SPEED; ic++) {
+			for (int i = 0; i < TOTAL_AGENTS; i++) {
+				int r = rand.nextInt(ROWS);
+				int c = rand.nextInt(COLS);
+				int agent = r * COLS + c;
+				int neighboursN = neighbourhood.size(agent);
+
+				// the votes of everybody but the agent
+				for (int f = 0; f < FEATURES; f++) {
+					System.arraycopy(global_votes, f * (TRAITS + 1), votes[f], 0, TRAITS + 1);
+					previous[f] = traits.get(agent, f);
+				}
+				remove_votes(agent);
+
+				// remove the agents outside the neighborhood, i.e. further
+				// than RADIUS (Manhattan distance)
+				for (int nr = 0; nr < ROWS; nr++) {
+					int reach = RADIUS - Math.abs(nr - r);
+					if (reach < 0) {
+						for (int nc = 0; nc < COLS; nc++) {
+							remove_votes(nr * COLS + nc);
+						}
+					} else {
+						for (int nc = 0; nc < c - reach; nc++) {
+							remove_votes(nr * COLS + nc);
+						}
+						for (int nc = c + reach + 1; nc < COLS; nc++) {
+							remove_votes(nr * COLS + nc);
+						}
 					}
 				}
 
+				// remove the neighbors ignored by selection error
+				for (long n = GeometricSkip.sample(SELECTION_ERROR, rand) - 1; n < neighboursN; n += GeometricSkip
+						.sample(SELECTION_ERROR, rand)) {
+					remove_votes(neighbourhood.get(agent, (int) n));
+				}
+
+				// adopt the trait with more votes
+				vote(agent);
+
 				// mutation
-				if (rand.nextFloat() >= 1 - MUTATION) {
+				if (is_mutation()) {
 					mutant_feature = rand.nextInt(FEATURES);
-					// Don't change dead features
-					if (mutant_feature != DEAD_TRAIT) {
-						traits[r][c][mutant_feature] = rand.nextInt(TRAITS);
+					traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
+				}
+
+				// update the histogram
+				if (global_version != traits.version()) {
+					for (int f = 0; f < FEATURES; f++) {
+						int t = traits.get(agent, f);
+						if (t != previous[f]) {
+							if (previous[f] != DEAD_TRAIT) {
+								global_votes[f * (TRAITS + 1) + previous[f]]--;
+							}
+							if (t != DEAD_TRAIT) {
+								global_votes[f * (TRAITS + 1) + t]++;
+							}
+						}
 					}
+					global_version = traits.version();
 				}
 			}
 		} // END of checkpoint
+	}
 
-	} // END of run_experiment
+	/**
+	 * Remove the traits of an agent from the current votes
+	 * 
+	 * @param agent
+	 *            the agent that does not vote
+	 */
+	private void remove_votes(int agent) {
+		for (int f = 0; f < FEATURES; f++) {
+			int t = traits.get(agent, f);
+			if (t != DEAD_TRAIT) {
+				votes[f][t]--;
+			}
+		}
+	}
+
+	/**
+	 * Count the traits of all the agents
+	 */
+	private void count_global_votes() {
+		for (int i = 0; i < global_votes.length; i++) {
+			global_votes[i] = 0;
+		}
+		for (int agent = 0; agent < TOTAL_AGENTS; agent++) {
+			for (int f = 0; f < FEATURES; f++) {
+				int t = traits.get(agent, f);
+				if (t != DEAD_TRAIT) {
+					global_votes[f * (TRAITS + 1) + t]++;
+				}
+			}
+		}
+		global_traits = traits;
+		global_version = traits.version();
+	}
+
+	/**
+	 * Count the votes of the neighbors of all the agents
+	 */
+	private void count_neighbour_votes() {
+		int stride = FEATURES * (TRAITS + 1);
+		for (int i = 0; i < neighbour_votes.length; i++) {
+			neighbour_votes[i] = 0;
+		}
+		for (int agent = 0; agent < TOTAL_AGENTS; agent++) {
+			int base = agent * stride;
+			int neighboursN = neighbourhood.size(agent);
+			for (int n = 0; n < neighboursN; n++) {
+				int neighbour = neighbourhood.get(agent, n);
+				for (int f = 0; f < FEATURES; f++) {
+					int neighbour_trait = traits.get(neighbour, f);
+					if (neighbour_trait != DEAD_TRAIT) {
+						neighbour_votes[base + f * (TRAITS + 1) + neighbour_trait]++;
+					}
+				}
+			}
+		}
+		votes_traits = traits;
+		votes_version = traits.version();
+	}
+
+	/**
+	 * Move the vote of an agent from one trait to another in the counts of its
+	 * neighbors (the neighborhoods are symmetric)
+	 * 
+	 * @param agent
+	 *            the agent whose trait changed
+	 * @param f
+	 *            the feature
+	 * @param from
+	 *            the previous trait
+	 * @param to
+	 *            the new trait
+	 */
+	private void move_vote(int agent, int f, int from, int to) {
+		int stride = FEATURES * (TRAITS + 1);
+		int offset = f * (TRAITS + 1);
+		int neighboursN = neighbourhood.size(agent);
+		for (int n = 0; n < neighboursN; n++) {
+			int base = neighbourhood.get(agent, n) * stride + offset;
+			if (from != DEAD_TRAIT) {
+				neighbour_votes[base + from]--;
+			}
+			if (to != DEAD_TRAIT) {
+				neighbour_votes[base + to]++;
+			}
+		}
+	}
+
+	/**
+	 * Select a feature in which the current trait of the agent does not have
+	 * more votes than the others, and adopt the trait with more votes (if it
+	 * has more votes than the current trait).
+	 * 
+	 * @param agent
+	 *            the agent
+	 */
+	protected void vote(int agent) {
+		// get the candidates features
+		int feature_candidatesN = 0;
+		for (int f = 0; f < FEATURES; f++) {
+			int current_trait = traits.get(agent, f);
+			int current_trait_votes = 0;
+			if (current_trait != DEAD_TRAIT) {
+				current_trait_votes = votes[f][current_trait];
+			}
+			for (int t = 0; t < TRAITS; t++) {
+				if (t != current_trait && votes[f][t] >= current_trait_votes) {
+					feature_candidates[feature_candidatesN++] = f;
+					t = TRAITS;
+				}
+			}
+		}
+
+		// select the candidate
+		if (feature_candidatesN > 0) {
+			int selected_feature = feature_candidates[rand.nextInt(feature_candidatesN)];
+			int max_trait = traits.get(agent, selected_feature);
+			int current_votes = 0;
+			if (max_trait != DEAD_TRAIT) {
+				current_votes = votes[selected_feature][max_trait];
+			}
+			int max_votes = current_votes;
+			int trait_candidatesN = 0;
+
+			// get the candidate traits
+			for (int t = 0; t < TRAITS; t++) {
+				int v = votes[selected_feature][t];
+				if (max_votes == v) {
+					trait_candidates[trait_candidatesN++] = t;
+				} else if (max_votes < v) {
+					trait_candidates[0] = t;
+					trait_candidatesN = 1;
+					max_votes = v;
+				}
+			}
+
+			// select the trait
+			if (max_votes > current_votes) {
+				traits.set(agent, selected_feature, trait_candidates[rand.nextInt(trait_candidatesN)]);
+			}
+		}
+	}
 
 }
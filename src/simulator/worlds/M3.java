@@ -13,6 +13,19 @@ public class M3 extends M2 {
 
 	private static final long serialVersionUID = -4468160398655999146L;
 
+	@Override
+	protected boolean is_absorbing() {
+		// the votes depend on the homophily, so the pairs are checked
+		return MUTATION == 0 && are_frozen_pairs();
+	}
+
+	@Override
+	protected boolean is_frozen_pair(int agent, int neighbour) {
+		// without selection error, neighbors without matches never vote
+		return traits.same_culture(agent, neighbour)
+				|| SELECTION_ERROR == 0 && traits.matches(agent, neighbour) == 0;
+	}
+
 	@Override
 	public String getModelDescription() {
 		return MODEL + ": Multilateral social influence with homophily - Experiment 3, Flache & Macy (2011)";
@@ -26,6 +39,8 @@ public class M3 extends M2 {
 				// row and column of the participating agent
 				int r = rand.nextInt(ROWS);
 				int c = rand.nextInt(COLS);
+				int agent = r * COLS + c;
+				int neighboursN = neighbourhood.size(agent);
 
 				// clean the votes
 				for (int f = 0; f < FEATURES; f++) {
@@ -34,27 +49,25 @@ public class M3 extends M2 {
 					}
 				}
 
-				// iterate over the neighbors to calculate the votes
-				for (int n = 0; n < neighboursN[r][c]; n++) {
+				// iterate over the neighbors to calculate the votes, each
+				// neighbor consumes two draws (selection error and homophily),
+				// or only one if the selection errors are skip sampled
+				int draws_per_neighbour = SKIP_SAMPLING ? 1 : 2;
+				rand.fill(draws, draws_per_neighbour * neighboursN);
+				for (int n = 0; n < neighboursN; n++) {
 
-					// row and column of the neighbor
-					int nr = neighboursX[r][c][n];
-					int nc = neighboursY[r][c][n];
+					// position of the neighbor in the trait space
+					int neighbour = neighbourhood.get(agent, n);
 
 					// get the number of identical traits
-					int matches = 0;
-					for (int f = 0; f < FEATURES; f++) {
-						if (traits[nr][nc][f] != DEAD_TRAIT
-								&& (traits[r][c][f] == DEAD_TRAIT || traits[r][c][f] == traits[nr][nc][f])) {
-							matches++;
-						}
-					}
+					int matches = traits.matches(agent, neighbour);
 
 					// selection error
-					boolean is_selection_error = rand.nextFloat() > 1 - SELECTION_ERROR;
+					boolean is_selection_error = SKIP_SAMPLING ? selection_skip.next(SELECTION_ERROR, rand)
+							: draws[2 * n] > 1 - SELECTION_ERROR;
 
 					// check homophily
-					if (rand.nextFloat() < matches / (float) FEATURES) {
+					if (draws[draws_per_neighbour * n + draws_per_neighbour - 1] < matches / (float) FEATURES) {
 
 						// if there isn't selection error,
 						// then don't include the neighbor
@@ -62,8 +75,9 @@ public class M3 extends M2 {
 
 							// include the neighbor's traits
 							for (int f = 0; f < FEATURES; f++) {
-								if (traits[nr][nc][f] != DEAD_TRAIT) {
-									votes[f][traits[nr][nc][f]]++;
+								int neighbour_trait = traits.get(neighbour, f);
+								if (neighbour_trait != DEAD_TRAIT) {
+									votes[f][neighbour_trait]++;
 								}
 							}
 						}
@@ -75,64 +89,23 @@ public class M3 extends M2 {
 
 						// include the neighbor's traits
 						for (int f = 0; f < FEATURES; f++) {
-							if (traits[nr][nc][f] != DEAD_TRAIT) {
-								votes[f][traits[nr][nc][f]]++;
+							int neighbour_trait = traits.get(neighbour, f);
+							if (neighbour_trait != DEAD_TRAIT) {
+								votes[f][neighbour_trait]++;
 							}
 						}
 					}
 				}
 
-				// get the candidates features
-				int feature_candidatesN = 0;
-				for (int f = 0; f < FEATURES; f++) {
-					int current_trait = traits[r][c][f];
-					int current_trait_votes = 0;
-					if (current_trait != DEAD_TRAIT) {
-						current_trait_votes = votes[f][current_trait];
-					}
-					for (int t = 0; t < TRAITS; t++) {
-						if (t != current_trait && votes[f][t] >= current_trait_votes) {
-							feature_candidates[feature_candidatesN++] = f;
-							t = TRAITS;
-						}
-					}
-				}
-
-				// select the candidate
-				if (feature_candidatesN > 0) {
-					int selected_feature = feature_candidates[rand.nextInt(feature_candidatesN)];
-					int max_trait = traits[r][c][selected_feature];
-					int current_votes = 0;
-					if (max_trait != DEAD_TRAIT) {
-						current_votes = votes[selected_feature][max_trait];
-					}
-					int max_votes = current_votes;
-					int trait_candidatesN = 0;
-
-					// get the candidate traits
-					for (int t = 0; t < TRAITS; t++) {
-						int v = votes[selected_feature][t];
-						if (max_votes == v) {
-							trait_candidates[trait_candidatesN++] = t;
-						} else if (max_votes < v) {
-							trait_candidates[0] = t;
-							trait_candidatesN = 1;
-							max_votes = v;
-						}
-					}
-
-					// select the trait
-					if (max_votes > current_votes) {
-						traits[r][c][selected_feature] = trait_candidates[rand.nextInt(trait_candidatesN)];
-					}
-				}
+				// adopt the trait with more votes
+				vote(agent);
 
 				// mutation
-				if (rand.nextFloat() >= 1 - MUTATION) {
+				if (is_mutation()) {
 					mutant_feature = rand.nextInt(FEATURES);
 					// Don't change dead features
 					if (mutant_feature != DEAD_TRAIT) {
-						traits[r][c][mutant_feature] = rand.nextInt(TRAITS);
+						traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
 					}
 				}
 			}
@@ -2,10 +2,14 @@ package simulator.worlds;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import simulator.CulturalSimulator;
 import simulator.control.Controller;
+import simulator.control.SimFile;
 
 /**
  * Based on experiment 1 of Flache and Macy (2011) this class implements:
@@ -84,6 +88,8 @@ public class M4 extends M1 {
 	private transient int n;
 	private transient int nr;
 	private transient int nc;
+	private transient int agent;
+	private transient int neighbour;
 	private transient int institution;
 	private transient int neighbors_institution;
 	private transient int mismatchesN;
@@ -169,6 +175,37 @@ public class M4 extends M1 {
 		}
 	}
 
+	@Override
+	protected void write_model(DataOutput out) throws IOException {
+		super.write_model(out);
+		out.writeBoolean(institutions != null);
+		if (institutions != null) {
+			SimFile.write_table(out, institutions);
+			SimFile.write_table(out, institutionsCenters);
+			SimFile.write_table(out, countryman_right_r);
+			SimFile.write_table(out, countryman_right_c);
+			SimFile.write_table(out, countryman_left_r);
+			SimFile.write_table(out, countryman_left_c);
+			SimFile.write_flags(out, votes_flags);
+			out.writeBoolean(hasnt_vote_flag);
+		}
+	}
+
+	@Override
+	protected void read_model(ByteBuffer in) throws IOException {
+		super.read_model(in);
+		if (in.hasRemaining() && in.get() != 0) {
+			institutions = SimFile.read_table(in);
+			institutionsCenters = SimFile.read_table(in);
+			countryman_right_r = SimFile.read_table(in);
+			countryman_right_c = SimFile.read_table(in);
+			countryman_left_r = SimFile.read_table(in);
+			countryman_left_c = SimFile.read_table(in);
+			votes_flags = SimFile.read_flags(in);
+			hasnt_vote_flag = in.get() != 0;
+		}
+	}
+
 	@Override
 	protected void reset() {
 		super.reset();
@@ -189,6 +226,14 @@ public class M4 extends M1 {
 		max_features = null;
 	}
 
+	@Override
+	protected boolean is_absorbing() {
+		// agents can keep changing their institutions (and the institutions
+		// their traits) when all the agents are identical, use the STOP_QUIET
+		// or STOP_STABLE rules instead
+		return false;
+	}
+
 	@Override
 	public String getModelDescription() {
 		return MODEL + ": Institutions including homophily Axelrod (1997) - Ulloa et al. (2016)";
@@ -206,18 +251,20 @@ public class M4 extends M1 {
 				c = rand.nextInt(COLS);
 
 				// select the neighbor that might influence the agent
-				n = rand.nextInt(neighboursN[r][c]);
-				nr = neighboursX[r][c][n];
-				nc = neighboursY[r][c][n];
+				agent = r * COLS + c;
+				n = rand.nextInt(neighbourhood.size(agent));
+				neighbour = neighbourhood.get(agent, n);
+				nr = neighbour / COLS;
+				nc = neighbour % COLS;
 
 				// select the agent's and neighbor's institution
 				institution = institutions[r][c];
 				neighbors_institution = institutions[nr][nc];
 
-				// get the number of mismatches between the two agents
-				mismatchesN = 0;
-				differences = 0;
-				non_death_traitsN = 0;
+				// Compare the agents
+				non_death_traitsN = traits.alive(neighbour, non_death_features);
+				mismatchesN = traits.mismatches(agent, neighbour, mismatches);
+				differences = traits.differences(agent, neighbour);
 
 				// get the number of identical traits between the agent and its
 				// institution
@@ -227,25 +274,13 @@ public class M4 extends M1 {
 				// and its neighbors's institution
 				neighbors_institution_overlap = 0;
 
-				// Compare the agents
+				// Compare the agent with the institutions
 				for (int f = 0; f < FEATURES; f++) {
-					if (traits[nr][nc][f] != DEAD_TRAIT) {
-						non_death_features[non_death_traitsN] = f;
-						non_death_traitsN++;
-						if (traits[r][c][f] != traits[nr][nc][f]) {
-							mismatches[mismatchesN] = f;
-							mismatchesN++;
-							if (traits[r][c][f] != DEAD_TRAIT) {
-								differences++;
-							}
-						}
-					} else {
-						differences++;
-					}
-					if (traits[r][c][f] == institution_traits[neighbors_institution][f]) {
+					int agent_trait = traits.get(agent, f);
+					if (agent_trait == institution_traits[neighbors_institution][f]) {
 						neighbors_institution_overlap++;
 					}
-					if (traits[r][c][f] == institution_traits[institution][f]) {
+					if (agent_trait == institution_traits[institution][f]) {
 						institution_overlap++;
 					}
 				}
@@ -263,7 +298,7 @@ public class M4 extends M1 {
 
 					// select the traits in play (agent's, neighbor's and
 					// institution's)
-					selected_trait = traits[nr][nc][selected_feature];
+					selected_trait = traits.get(neighbour, selected_feature);
 					institution_trait = institution_traits[institution][selected_feature];
 					neighbors_institution_trait = institution_traits[neighbors_institution][selected_feature];
 
@@ -272,7 +307,7 @@ public class M4 extends M1 {
 					// or because the trait is already different, then just use
 					// homophily
 					if (selected_trait == institution_trait
-							|| institution_trait != -1 && traits[r][c][selected_feature] != institution_trait) {
+							|| institution_trait != -1 && traits.get(agent, selected_feature) != institution_trait) {
 
 						// check if there is actual interaction checking against
 						// the homophily and
@@ -285,7 +320,7 @@ public class M4 extends M1 {
 							//////////////////////
 							// CHANGE THE TRAIT //
 							//////////////////////
-							traits[r][c][selected_feature] = selected_trait;
+							traits.set(agent, selected_feature, selected_trait);
 						}
 
 					} else {
@@ -309,7 +344,7 @@ public class M4 extends M1 {
 							// then the cultural overlap
 							// will increase
 							if (institution_trait == selected_trait
-									&& traits[r][c][selected_feature] != institution_trait) {
+									&& traits.get(agent, selected_feature) != institution_trait) {
 								institution_overlap++;
 							}
 							// otherwise, if the new trait is different from the
@@ -318,7 +353,7 @@ public class M4 extends M1 {
 							// institution then the cultural
 							// overlap will decrease
 							else if (institution_trait != selected_trait
-									&& traits[r][c][selected_feature] == institution_trait) {
+									&& traits.get(agent, selected_feature) == institution_trait) {
 								institution_overlap--;
 							}
 
@@ -328,7 +363,7 @@ public class M4 extends M1 {
 							// then the institutional overlap
 							// will increase
 							if (neighbors_institution_trait == selected_trait
-									&& traits[r][c][selected_feature] != neighbors_institution_trait) {
+									&& traits.get(agent, selected_feature) != neighbors_institution_trait) {
 								neighbors_institution_overlap++;
 							}
 							// otherwise, if the new trait is different from the
@@ -337,7 +372,7 @@ public class M4 extends M1 {
 							// institution then the institutional
 							// overlap will decrease
 							else if (neighbors_institution_trait != selected_trait
-									&& traits[r][c][selected_feature] == neighbors_institution_trait) {
+									&& traits.get(agent, selected_feature) == neighbors_institution_trait) {
 								neighbors_institution_overlap--;
 							}
 
@@ -354,7 +389,7 @@ public class M4 extends M1 {
 							//////////////////////
 							// we change the trait after adjusting the overlaps
 							////////////////////// //
-							traits[r][c][selected_feature] = selected_trait;
+							traits.set(agent, selected_feature, selected_trait);
 
 							// when the agent doesn't have any similarity with
 							// the institutions then
@@ -453,11 +488,11 @@ public class M4 extends M1 {
 				} // END of not grieving
 
 				// mutation
-				if (rand.nextFloat() >= 1 - MUTATION) {
+				if (is_mutation()) {
 					mutant_feature = rand.nextInt(FEATURES);
 					// Don't change dead features
 					if (mutant_feature != DEAD_TRAIT) {
-						traits[r][c][mutant_feature] = rand.nextInt(TRAITS);
+						traits.set(agent, mutant_feature, rand.nextInt(TRAITS));
 					}
 				}
 
@@ -496,8 +531,9 @@ public class M4 extends M1 {
 
 								// let the agent vote on all the active features
 								for (int f = 0; f < FEATURES; f++) {
-									if (traits[nr][nc][f] != DEAD_TRAIT) {
-										votes[f][traits[nr][nc][f]]++;
+									int trait = traits.get(nr * COLS + nc, f);
+									if (trait != DEAD_TRAIT) {
+										votes[f][trait]++;
 									}
 								}
 
@@ -602,7 +638,7 @@ public class M4 extends M1 {
 								// count mismatches between the agent and the
 								// institution
 								for (int f = 0; f < FEATURES; f++) {
-									if (institution_traits[institution][f] != traits[nr][nc][f]) {
+									if (institution_traits[institution][f] != traits.get(nr * COLS + nc, f)) {
 										mismatchesN++;
 									}
 								}
@@ -612,9 +648,9 @@ public class M4 extends M1 {
 									// measuring the similarity with the
 									// institution
 									if (institution_traits[institution][f] != -1
-											&& traits[nr][nc][f] != institution_traits[institution][f]
+											&& traits.get(nr * COLS + nc, f) != institution_traits[institution][f]
 											&& rand.nextFloat() > mismatchesN / (float) FEATURES) {
-										traits[nr][nc][f] = institution_traits[institution][f];
+										traits.set(nr * COLS + nc, f, institution_traits[institution][f]);
 									}
 								}
 
@@ -875,28 +911,6 @@ public class M4 extends M1 {
 
 	}
 
-	/**
-	 * Count the number of institutions and search for the biggest one
-	 */
-	private void count_institutions() {
-		biggest_institution = 0;
-		alife_institutions = 0;
-		for (int i = 0; i < institutionsN.length; i++) {
-			if (institutionsN[i] > 0) {
-				alife_institutions++;
-				if (institutionsN[i] > biggest_institution) {
-					biggest_institution = institutionsN[i];
-				}
-			}
-		}
-	}
-
-	@Override
-	protected String results() {
-		count_institutions();
-		return super.results();
-	}
-
 	@Override
 	public void remove_partial_institution_content(int r, int c, double prob, Random rand) {
 		int institution = institutionsCenters[r][c];
@@ -1003,7 +1017,7 @@ public class M4 extends M1 {
 		int institution = abandon_institution(r, c);
 
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = TRAITS;
+			traits.set(r * COLS + c, f, TRAITS);
 			institution_traits[institution][f] = TRAITS;
 		}
 
@@ -1015,7 +1029,7 @@ public class M4 extends M1 {
 		this.settlers++;
 		move_to_institution(r, c, nr, nc);
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = TRAITS;
+			traits.set(r * COLS + c, f, TRAITS);
 		}
 	}
 
@@ -1024,7 +1038,7 @@ public class M4 extends M1 {
 		this.immigrants++;
 		abandon_institution(r, c);
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = TRAITS;
+			traits.set(r * COLS + c, f, TRAITS);
 		}
 	}
 
@@ -1033,7 +1047,7 @@ public class M4 extends M1 {
 		this.casualties++;
 		abandon_institution(r, c);
 		for (int f = 0; f < FEATURES; f++) {
-			traits[r][c][f] = DEAD_TRAIT;
+			traits.set(r * COLS + c, f, DEAD_TRAIT);
 		}
 	}
 